@@ -0,0 +1,122 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import org.jboss.osgi.container.spi.BatchServiceRegistry;
+import org.jboss.osgi.container.spi.ServiceDescriptor;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+
+/**
+ * Starts and stops the framework for the benchmarks and fills the service registry
+ *
+ * @since 18-Oct-2026
+ */
+final class BenchmarkSupport
+{
+   // Hide the constructor
+   private BenchmarkSupport()
+   {
+   }
+
+   static Framework startFramework() throws Exception
+   {
+      return startFramework(new HashMap<String, String>());
+   }
+
+   static Framework startFramework(Map<String, String> props) throws Exception
+   {
+      props = new HashMap<String, String>(props);
+      props.put(Constants.FRAMEWORK_STORAGE, "target/osgi-store");
+      props.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+
+      Iterator<FrameworkFactory> factories = ServiceLoader.load(FrameworkFactory.class).iterator();
+      Framework framework = factories.next().newFramework(props);
+      framework.start();
+      return framework;
+   }
+
+   static void stopFramework(Framework framework) throws Exception
+   {
+      framework.stop();
+      framework.waitForStop(10000);
+   }
+
+   /**
+    * Register the given number of services in a single batch. 
+    * Each service has a unique <code>service.pid</code> of the form <code>pid-&lt;index&gt;</code>.
+    */
+   static List<ServiceRegistration> registerServices(BundleContext context, String clazz, Object service, int count)
+   {
+      List<ServiceDescriptor> descriptors = new ArrayList<ServiceDescriptor>(count);
+      for (int i = 0; i < count; i++)
+         descriptors.add(new ServiceDescriptor(clazz, service, getServiceProperties(i)));
+
+      ServiceReference sref = context.getServiceReference(BatchServiceRegistry.class.getName());
+      BatchServiceRegistry registry = (BatchServiceRegistry)context.getService(sref);
+      try
+      {
+         return registry.registerServices(context, descriptors);
+      }
+      finally
+      {
+         context.ungetService(sref);
+      }
+   }
+
+   static Hashtable<String, Object> getServiceProperties(int index)
+   {
+      Hashtable<String, Object> props = new Hashtable<String, Object>();
+      props.put(Constants.SERVICE_PID, "pid-" + index);
+      props.put("index", index);
+      return props;
+   }
+
+   static void unregisterServices(List<ServiceRegistration> registrations)
+   {
+      for (ServiceRegistration registration : registrations)
+         registration.unregister();
+   }
+
+   /**
+    * A service that does nothing
+    */
+   static class NoopService implements Runnable
+   {
+      public void run()
+      {
+         // do nothing
+      }
+   }
+}
@@ -0,0 +1,135 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.osgi.container.bundle.ServiceState;
+import org.jboss.osgi.container.plugin.FrameworkEventsPlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Measures the cost of firing a {@link ServiceEvent}.
+ *
+ * Half of the registered service listeners are interested in the service, the other half listen for another
+ * interface. Run with the GC profiler to see the allocation per event (gc.alloc.rate.norm)
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar ServiceEventBenchmark -prof gc
+ * </pre>
+ *
+ * @since 18-Oct-2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceEventBenchmark
+{
+   @Param({ "0", "10", "1000" })
+   public int listenerCount;
+
+   private Framework framework;
+   private ServiceRegistration registration;
+   private ServiceState serviceState;
+   private FrameworkEventsPlugin eventsPlugin;
+
+   @Setup
+   public void setUp() throws Exception
+   {
+      framework = BenchmarkSupport.startFramework();
+      BundleContext context = framework.getBundleContext();
+
+      ServiceListener listener = new ServiceListener()
+      {
+         public void serviceChanged(ServiceEvent event)
+         {
+            // do nothing
+         }
+      };
+
+      for (int i = 0; i < listenerCount; i++)
+      {
+         String className = (i % 2 == 0 ? Runnable.class.getName() : Comparable.class.getName());
+         context.addServiceListener(new DelegatingListener(listener), "(" + Constants.OBJECTCLASS + "=" + className + ")");
+      }
+
+      Runnable service = new Runnable()
+      {
+         public void run()
+         {
+            // do nothing
+         }
+      };
+      registration = context.registerService(Runnable.class.getName(), service, null);
+      serviceState = ServiceState.assertServiceState(registration.getReference());
+      eventsPlugin = serviceState.getServiceOwner().getFrameworkEventsPlugin();
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      registration.unregister();
+      BenchmarkSupport.stopFramework(framework);
+   }
+
+   @Benchmark
+   public void fireModified()
+   {
+      eventsPlugin.fireServiceEvent(serviceState.getServiceOwner(), ServiceEvent.MODIFIED, serviceState);
+   }
+
+   // Every listener must be a distinct instance
+   static class DelegatingListener implements ServiceListener
+   {
+      private final ServiceListener delegate;
+
+      DelegatingListener(ServiceListener delegate)
+      {
+         this.delegate = delegate;
+      }
+
+      public void serviceChanged(ServiceEvent event)
+      {
+         delegate.serviceChanged(event);
+      }
+   }
+}
@@ -0,0 +1,132 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Measures service registration and lookup against a registry of the given size.
+ *
+ * All services are registered under the same interface. The filtered lookups select a single service
+ * by its <code>service.pid</code>, which is indexed by value, or by an unindexed property.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar ServiceRegistryBenchmark -p registrySize=1000
+ * </pre>
+ *
+ * @since 18-Oct-2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceRegistryBenchmark
+{
+   @Param({ "10", "1000", "100000" })
+   public int registrySize;
+
+   private Framework framework;
+   private BundleContext context;
+   private List<ServiceRegistration> registrations;
+   private Runnable service;
+   private String pidFilter;
+   private String indexFilter;
+
+   @Setup
+   public void setUp() throws Exception
+   {
+      framework = BenchmarkSupport.startFramework();
+      context = framework.getBundleContext();
+      service = new BenchmarkSupport.NoopService();
+      registrations = BenchmarkSupport.registerServices(context, Runnable.class.getName(), service, registrySize);
+
+      int middle = registrySize / 2;
+      pidFilter = "(" + Constants.SERVICE_PID + "=pid-" + middle + ")";
+      indexFilter = "(index=" + middle + ")";
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      BenchmarkSupport.unregisterServices(registrations);
+      BenchmarkSupport.stopFramework(framework);
+   }
+
+   @Benchmark
+   public void registerUnregister()
+   {
+      ServiceRegistration registration = context.registerService(Runnable.class.getName(), service, null);
+      registration.unregister();
+   }
+
+   @Benchmark
+   public ServiceReference getServiceReference()
+   {
+      return context.getServiceReference(Runnable.class.getName());
+   }
+
+   @Benchmark
+   public ServiceReference[] getServiceReferences() throws InvalidSyntaxException
+   {
+      return context.getServiceReferences(Runnable.class.getName(), null);
+   }
+
+   @Benchmark
+   public ServiceReference[] getServiceReferencesIndexedFilter() throws InvalidSyntaxException
+   {
+      return context.getServiceReferences(Runnable.class.getName(), pidFilter);
+   }
+
+   @Benchmark
+   public ServiceReference[] getServiceReferencesUnindexedFilter() throws InvalidSyntaxException
+   {
+      return context.getServiceReferences(Runnable.class.getName(), indexFilter);
+   }
+
+   @Benchmark
+   public ServiceReference[] getServiceReferencesFilterOnly() throws InvalidSyntaxException
+   {
+      return context.getServiceReferences(null, pidFilter);
+   }
+}
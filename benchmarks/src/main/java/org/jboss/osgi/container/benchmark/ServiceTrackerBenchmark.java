@@ -0,0 +1,121 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Measures {@link ServiceTracker} churn.
+ *
+ * Opening a tracker looks up and gets all services of the registry. Registering a service with open
+ * trackers fires a REGISTERED and an UNREGISTERING event to every tracker.
+ *
+ * @since 18-Oct-2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceTrackerBenchmark
+{
+   @Param({ "10", "1000", "10000" })
+   public int registrySize;
+
+   @Param({ "1", "100" })
+   public int trackerCount;
+
+   private Framework framework;
+   private BundleContext context;
+   private List<ServiceRegistration> registrations;
+   private List<ServiceTracker> trackers;
+   private Runnable service;
+
+   @Setup
+   public void setUp() throws Exception
+   {
+      framework = BenchmarkSupport.startFramework();
+      context = framework.getBundleContext();
+      service = new BenchmarkSupport.NoopService();
+      registrations = BenchmarkSupport.registerServices(context, Runnable.class.getName(), service, registrySize);
+
+      trackers = new ArrayList<ServiceTracker>();
+      for (int i = 0; i < trackerCount; i++)
+      {
+         ServiceTracker tracker = new ServiceTracker(context, Runnable.class.getName(), null);
+         tracker.open();
+         trackers.add(tracker);
+      }
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      for (ServiceTracker tracker : trackers)
+         tracker.close();
+
+      BenchmarkSupport.unregisterServices(registrations);
+      BenchmarkSupport.stopFramework(framework);
+   }
+
+   @Benchmark
+   public int openClose()
+   {
+      ServiceTracker tracker = new ServiceTracker(context, Runnable.class.getName(), null);
+      tracker.open();
+      try
+      {
+         return tracker.size();
+      }
+      finally
+      {
+         tracker.close();
+      }
+   }
+
+   @Benchmark
+   public void registerUnregister()
+   {
+      ServiceRegistration registration = context.registerService(Runnable.class.getName(), service, null);
+      registration.unregister();
+   }
+}
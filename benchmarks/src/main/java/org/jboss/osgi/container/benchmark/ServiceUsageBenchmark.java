@@ -0,0 +1,151 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Measures getService/ungetService for a plain service and for a {@link ServiceFactory}.
+ *
+ * The released variants drop the use count to zero on every unget, which makes the framework
+ * call the factory again on the next get. The held variants keep one use of the service, so that
+ * the cached factory value is returned.
+ *
+ * @since 18-Oct-2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceUsageBenchmark
+{
+   @Param({ "plain", "factory" })
+   public String serviceType;
+
+   private Framework framework;
+   private BundleContext context;
+   private ServiceRegistration registration;
+   private ServiceReference reference;
+
+   @Setup
+   public void setUp() throws Exception
+   {
+      framework = BenchmarkSupport.startFramework();
+      context = framework.getBundleContext();
+
+      Object service = new BenchmarkSupport.NoopService();
+      if ("factory".equals(serviceType))
+         service = new NoopServiceFactory();
+
+      registration = context.registerService(Runnable.class.getName(), service, null);
+      reference = registration.getReference();
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      registration.unregister();
+      BenchmarkSupport.stopFramework(framework);
+   }
+
+   @Benchmark
+   public Object getUngetReleased()
+   {
+      Object value = context.getService(reference);
+      context.ungetService(reference);
+      return value;
+   }
+
+   @Benchmark
+   @Threads(4)
+   public Object getUngetReleasedContended()
+   {
+      return getUngetReleased();
+   }
+
+   @Benchmark
+   public Object getUngetHeld(HeldService held)
+   {
+      Object value = context.getService(reference);
+      context.ungetService(reference);
+      return value;
+   }
+
+   /**
+    * Holds one use of the service for the duration of an iteration
+    */
+   @State(Scope.Benchmark)
+   public static class HeldService
+   {
+      private BundleContext context;
+      private ServiceReference reference;
+
+      @Setup
+      public void setUp(ServiceUsageBenchmark benchmark)
+      {
+         context = benchmark.context;
+         reference = benchmark.reference;
+         context.getService(reference);
+      }
+
+      @TearDown
+      public void tearDown()
+      {
+         context.ungetService(reference);
+      }
+   }
+
+   static class NoopServiceFactory implements ServiceFactory
+   {
+      public Object getService(Bundle bundle, ServiceRegistration registration)
+      {
+         return new BenchmarkSupport.NoopService();
+      }
+
+      public void ungetService(Bundle bundle, ServiceRegistration registration, Object service)
+      {
+         // do nothing
+      }
+   }
+}
@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Locale;
@@ -38,6 +39,7 @@ import java.util.PropertyResourceBundle;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -91,7 +93,9 @@ public abstract class AbstractBundle implements Bundle
    private BundleWrapper bundleWrapper;
    private long lastModified = System.currentTimeMillis();
    private List<ServiceState> registeredServices;
-   private Map<ServiceState, AtomicInteger> usedServices;
+   // The use counts of the services in use, which are shared with the {@link ServiceState}
+   // A use count is released exactly when it drops to zero, which takes the compare-and-set of an AtomicInteger
+   private final ConcurrentMap<ServiceState, AtomicInteger> usedServices = new ConcurrentHashMap<ServiceState, AtomicInteger>();
 
    // Cache commonly used plugins
    private FrameworkEventsPlugin eventsPlugin;
@@ -249,6 +253,19 @@ public abstract class AbstractBundle implements Bundle
       registeredServices.add(serviceState);
    }
 
+   public void addRegisteredServices(List<ServiceState> serviceStates)
+   {
+      if (log.isDebugEnabled())
+         log.debug("Add registered services " + serviceStates + " to: " + this);
+
+      synchronized (this)
+      {
+         if (registeredServices == null)
+            registeredServices = new CopyOnWriteArrayList<ServiceState>();
+      }
+      registeredServices.addAll(serviceStates);
+   }
+
    public void removeRegisteredService(ServiceState serviceState)
    {
       log.debug("Remove registered service [" + serviceState + "] from: " + this);
@@ -257,6 +274,16 @@ public abstract class AbstractBundle implements Bundle
          registeredServices.remove(serviceState);
    }
 
+   public void removeRegisteredServices(List<ServiceState> serviceStates)
+   {
+      if (log.isDebugEnabled())
+         log.debug("Remove registered services " + serviceStates + " from: " + this);
+
+      // A single copy of the array, with constant time lookups of the removed services
+      if (registeredServices != null)
+         registeredServices.removeAll(new HashSet<ServiceState>(serviceStates));
+   }
+
    public List<ServiceState> getRegisteredServicesInternal()
    {
       if (registeredServices == null)
@@ -280,46 +307,83 @@ public abstract class AbstractBundle implements Bundle
       return srefs.toArray(new ServiceReference[srefs.size()]);
    }
 
+   /**
+    * Increment the use count of this bundle for the given service.
+    * 
+    * The use count is shared with the service, which makes this bundle a using bundle of the service. 
+    * A use count that dropped to zero is released and never incremented again.
+    */
    public void addServiceInUse(ServiceState serviceState)
    {
-      log.debug("Add service in use [" + serviceState + "] to: " + this);
+      if (log.isDebugEnabled())
+         log.debug("Add service in use [" + serviceState + "] to: " + this);
 
-      AtomicInteger count;
-      synchronized (this)
+      while (true)
       {
-         if (usedServices == null)
-            usedServices = new ConcurrentHashMap<ServiceState, AtomicInteger>();
-
-         count = usedServices.get(serviceState);
+         AtomicInteger count = usedServices.get(serviceState);
          if (count == null)
-            usedServices.put(serviceState, count = new AtomicInteger());
+         {
+            count = new AtomicInteger(1);
+            if (usedServices.putIfAbsent(serviceState, count) == null)
+            {
+               serviceState.addUsingBundle(this, count);
+               return;
+            }
+            continue;
+         }
+
+         int value = count.get();
+         if (value > 0)
+         {
+            if (count.compareAndSet(value, value + 1))
+               return;
+         }
+         else
+         {
+            // The use count is being released, help to remove it
+            releaseServiceInUse(serviceState, count);
+         }
       }
-      count.incrementAndGet();
    }
 
+   /**
+    * Decrement the use count of this bundle for the given service.
+    * @return The remaining use count or -1 if the service was not in use
+    */
    public int removeServiceInUse(ServiceState serviceState)
    {
-      log.debug("Remove service in use [" + serviceState + "] from: " + this);
+      if (log.isDebugEnabled())
+         log.debug("Remove service in use [" + serviceState + "] from: " + this);
 
-      AtomicInteger count;
-      synchronized (this)
+      AtomicInteger count = usedServices.get(serviceState);
+      if (count == null)
+         return -1;
+
+      while (true)
       {
-         if (usedServices == null)
+         int value = count.get();
+         if (value <= 0)
             return -1;
 
-         count = usedServices.get(serviceState);
-         if (count == null)
-            return -1;
+         if (count.compareAndSet(value, value - 1))
+         {
+            if (value == 1)
+               releaseServiceInUse(serviceState, count);
 
-         if (count.decrementAndGet() == 0)
-            usedServices.remove(serviceState);
+            return value - 1;
+         }
       }
-      return count.get();
+   }
+
+   private void releaseServiceInUse(ServiceState serviceState, AtomicInteger count)
+   {
+      usedServices.remove(serviceState, count);
+      serviceState.removeUsingBundle(this, count);
    }
 
    public Set<ServiceState> getServicesInUseInternal()
    {
-      if (usedServices == null)
+      if (usedServices.isEmpty())
          return Collections.emptySet();
 
       return Collections.unmodifiableSet(usedServices.keySet());
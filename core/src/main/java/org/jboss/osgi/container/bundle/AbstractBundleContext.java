@@ -30,13 +30,13 @@ import java.util.List;
 import org.jboss.osgi.container.plugin.BundleStoragePlugin;
 import org.jboss.osgi.container.plugin.FrameworkEventsPlugin;
 import org.jboss.osgi.container.plugin.ServiceManagerPlugin;
+import org.jboss.osgi.container.util.CompiledFilter;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.BundleListener;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkListener;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
@@ -304,7 +304,10 @@ public abstract class AbstractBundleContext implements BundleContext
    public Filter createFilter(String filter) throws InvalidSyntaxException
    {
       checkValidBundleContext();
-      return FrameworkUtil.createFilter(filter);
+      if (filter == null)
+         throw new NullPointerException("Null filter");
+
+      return CompiledFilter.compile(filter);
    }
 
    void checkValidBundleContext()
@@ -54,6 +54,7 @@ public abstract class AbstractRevision
    private final AbstractBundle bundleState;
    private final OSGiMetaData metadata;
    private XModule resolverModule;
+   private final ServiceTypeCache serviceTypeCache = new ServiceTypeCache();
 
    // Cache commonly used plugins
    private final ModuleManagerPlugin moduleManager;
@@ -79,6 +80,9 @@ public abstract class AbstractRevision
 
    void refreshRevision(AbstractBundle bundleState, OSGiMetaData metadata) throws BundleException
    {
+      // The refreshed revision gets a new class loader
+      serviceTypeCache.clear();
+
       boolean systemRev = (bundleState.getBundleId() == 0);
       int moduleId = systemRev ? 0 : resolverPlugin.createModuleId();
       
@@ -118,6 +122,14 @@ public abstract class AbstractRevision
       return module != null ? module.getClassLoader() : null;
    }
    
+   /**
+    * Get the cache of the service interfaces that are registered by this revision
+    */
+   ServiceTypeCache getServiceTypeCache()
+   {
+      return serviceTypeCache;
+   }
+
    BundleManager getBundleManager()
    {
       return bundleState.getBundleManager();
@@ -91,6 +91,22 @@ public abstract class AbstractUserBundle extends AbstractBundle
 
    abstract AbstractUserRevision createRevisionInternal(Deployment deployment, int revisionCount) throws BundleException;
 
+   /**
+    * Get the number of revisions that were created for this bundle, across framework restarts
+    */
+   int getRevisionCounter()
+   {
+      return revisionCounter.get();
+   }
+
+   /**
+    * Restore the revision counter of a bundle that is reinstalled from the bundle cache
+    */
+   void restoreRevisionCounter(int count)
+   {
+      revisionCounter.set(count);
+   }
+
    public ModuleClassLoader getModuleClassLoader()
    {
       return getCurrentRevision().getModuleClassLoader();
@@ -204,6 +220,7 @@ public abstract class AbstractUserBundle extends AbstractBundle
          throw be;
       }
 
+      getBundleManager().storeBundleCacheEntry(this);
       getFrameworkEventsPlugin().fireBundleEvent(getBundleWrapper(), BundleEvent.UPDATED);
       if (restart)
       {
@@ -312,12 +329,17 @@ public abstract class AbstractUserBundle extends AbstractBundle
       BundleManager bundleManager = getBundleManager();
       AbstractRevision currentRev = getCurrentRevision();
 
-      // Remove the revisions from the resolver
+      // Remove the revisions from the resolver and the module manager
+      ModuleManagerPlugin moduleManager = bundleManager.getPlugin(ModuleManagerPlugin.class);
       for (AbstractRevision rev : getRevisions())
       {
          XModule resModule = rev.getResolverModule();
          getResolverPlugin().removeModule(resModule);
 
+         // The refreshed revision gets a new module
+         if (isFragment() == false)
+            moduleManager.removeModule(rev.getModuleIdentifier());
+
          // Delete the content root file
          if (rev != currentRev)
          {
@@ -0,0 +1,125 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.bundle;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The persistent state of an installed bundle in the bundle cache.
+ *
+ * The bundle cache lets a restarted framework reinstall its bundles from the stored content, 
+ * without going back to their original locations.
+ *
+ * @since 18-Oct-2026
+ */
+public final class BundleCacheEntry
+{
+   private final long bundleId;
+   private final String location;
+   private final int revision;
+   private final int startLevel;
+   private final boolean persistentlyStarted;
+   private final String contentName;
+   private final Map<String, String> headers;
+
+   /**
+    * Create a cache entry
+    * 
+    * @param bundleId The bundle id
+    * @param location The location the bundle was installed from
+    * @param revision The revision counter of the bundle
+    * @param startLevel The start level or {@link org.jboss.osgi.container.plugin.StartLevelPlugin#BUNDLE_STARTLEVEL_UNSPECIFIED}
+    * @param persistentlyStarted True if the bundle is persistently started
+    * @param contentName The file name of the stored content in the bundle cache directory
+    */
+   public BundleCacheEntry(long bundleId, String location, int revision, int startLevel, boolean persistentlyStarted, String contentName)
+   {
+      this(bundleId, location, revision, startLevel, persistentlyStarted, contentName, null);
+   }
+
+   /**
+    * Create a cache entry with the manifest headers of the stored content
+    * 
+    * @param headers The manifest headers or null if the metadata must be read from the content
+    */
+   public BundleCacheEntry(long bundleId, String location, int revision, int startLevel, boolean persistentlyStarted, String contentName, Map<String, String> headers)
+   {
+      if (location == null)
+         throw new IllegalArgumentException("Null location");
+      if (contentName == null)
+         throw new IllegalArgumentException("Null contentName");
+
+      this.bundleId = bundleId;
+      this.location = location;
+      this.revision = revision;
+      this.startLevel = startLevel;
+      this.persistentlyStarted = persistentlyStarted;
+      this.contentName = contentName;
+      this.headers = (headers != null ? Collections.unmodifiableMap(headers) : null);
+   }
+
+   public long getBundleId()
+   {
+      return bundleId;
+   }
+
+   public String getLocation()
+   {
+      return location;
+   }
+
+   public int getRevision()
+   {
+      return revision;
+   }
+
+   public int getStartLevel()
+   {
+      return startLevel;
+   }
+
+   public boolean isPersistentlyStarted()
+   {
+      return persistentlyStarted;
+   }
+
+   public String getContentName()
+   {
+      return contentName;
+   }
+
+   /**
+    * Get the manifest headers of the stored content.
+    * @return The headers or null if they are not known
+    */
+   public Map<String, String> getHeaders()
+   {
+      return headers;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "BundleCacheEntry[id=" + bundleId + ",location=" + location + ",rev=" + revision + "]";
+   }
+}
@@ -28,10 +28,22 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
 
 import org.jboss.osgi.container.plugin.BundleDeploymentPlugin;
 import org.jboss.osgi.container.plugin.BundleStoragePlugin;
@@ -62,11 +74,13 @@ import org.jboss.osgi.container.plugin.internal.WebXMLVerifierInterceptor;
 import org.jboss.osgi.deployment.deployer.Deployment;
 import org.jboss.osgi.metadata.OSGiMetaData;
 import org.jboss.osgi.resolver.XVersionRange;
+import org.jboss.osgi.spi.util.BundleInfo;
 import org.jboss.osgi.vfs.AbstractVFS;
 import org.jboss.osgi.vfs.VirtualFile;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
 import org.osgi.framework.FrameworkEvent;
 
 /**
@@ -85,8 +99,20 @@ public class BundleManager
    private AtomicLong identityGenerator = new AtomicLong();
    // The sytem bundle
    private SystemBundle systemBundle;
+   /** 
+    * The framework property that disables the persistent bundle cache. 
+    * The cache is only used when the storage area is configured explicitly with {@link Constants#FRAMEWORK_STORAGE}. 
+    */
+   public static final String PROP_BUNDLE_CACHE = "org.jboss.osgi.bundle.cache";
+   // True while the bundles are restored from the bundle cache
+   private volatile boolean restoringBundleCache;
+
    // Maps bundleId to Bundle
    private Map<Long, AbstractBundle> bundleMap = Collections.synchronizedMap(new LinkedHashMap<Long, AbstractBundle>());
+   // Maps the location to the bundles in install order, which includes uninstalled bundles that are not yet removed
+   private final ConcurrentMap<String, List<AbstractBundle>> locationIndex = new ConcurrentHashMap<String, List<AbstractBundle>>();
+   // Maps the symbolic name to the bundles in install order
+   private final ConcurrentMap<String, List<AbstractBundle>> symbolicNameIndex = new ConcurrentHashMap<String, List<AbstractBundle>>();
    /// The registered plugins 
    private Map<Class<? extends Plugin>, Plugin> plugins = new LinkedHashMap<Class<? extends Plugin>, Plugin>();
    // The Framework state
@@ -155,21 +181,66 @@ public class BundleManager
 
       // Register the bundle with the manager
       bundleMap.put(bundleId, bundleState);
+      addToIndex(locationIndex, bundleState.getLocation(), bundleState);
+      addToIndex(symbolicNameIndex, bundleState.getSymbolicName(), bundleState);
       bundleState.changeState(Bundle.INSTALLED);
       
       // Add the bundle to the resolver
       bundleState.addToResolver();
+
+      if (bundleState instanceof AbstractUserBundle)
+         storeBundleCacheEntry((AbstractUserBundle)bundleState);
    }
 
    void removeBundleState(AbstractUserBundle bundleState)
    {
       bundleState.removeFromResolver();
       bundleMap.remove(bundleState.getBundleId());
+      removeFromIndex(locationIndex, bundleState.getLocation(), bundleState);
+      removeFromIndex(symbolicNameIndex, bundleState.getSymbolicName(), bundleState);
+   }
+
+   private static void addToIndex(ConcurrentMap<String, List<AbstractBundle>> index, String key, AbstractBundle bundleState)
+   {
+      if (key == null)
+         return;
+
+      // Readers do not lock, writers are serialized so that an emptied list is not removed while a bundle is added to it
+      synchronized (index)
+      {
+         List<AbstractBundle> bundles = index.get(key);
+         if (bundles == null)
+         {
+            bundles = new CopyOnWriteArrayList<AbstractBundle>();
+            index.put(key, bundles);
+         }
+         bundles.add(bundleState);
+      }
+   }
+
+   private static void removeFromIndex(ConcurrentMap<String, List<AbstractBundle>> index, String key, AbstractBundle bundleState)
+   {
+      if (key == null)
+         return;
+
+      synchronized (index)
+      {
+         List<AbstractBundle> bundles = index.get(key);
+         if (bundles != null)
+         {
+            bundles.remove(bundleState);
+            if (bundles.isEmpty())
+               index.remove(key);
+         }
+      }
    }
 
    void uninstallBundleState(AbstractBundle bundleState)
    {
       bundleState.changeState(Bundle.UNINSTALLED);
+
+      if (bundleState instanceof AbstractUserBundle)
+         removeBundleCacheEntry((AbstractUserBundle)bundleState);
    }
 
    /**
@@ -203,17 +274,16 @@ public class BundleManager
       if (location == null)
          throw new IllegalArgumentException("Null location");
 
-      AbstractBundle result = null;
-      for (AbstractBundle aux : getBundles())
+      List<AbstractBundle> bundles = locationIndex.get(location);
+      if (bundles == null)
+         return null;
+
+      for (AbstractBundle aux : bundles)
       {
-         String auxLocation = aux.getLocation();
-         if (location.equals(auxLocation))
-         {
-            result = aux;
-            break;
-         }
+         if (aux.getState() != Bundle.UNINSTALLED)
+            return aux;
       }
-      return result;
+      return null;
    }
 
    /**
@@ -228,19 +298,27 @@ public class BundleManager
     */
    public AbstractBundle getBundle(String symbolicName, String versionRange)
    {
-      AbstractBundle result = null;
-      for (AbstractBundle aux : getBundles())
+      List<AbstractBundle> bundles = (symbolicName != null ? symbolicNameIndex.get(symbolicName) : null);
+      if (bundles == null)
+         return null;
+
+      // Parse the range once per query
+      XVersionRange range = null;
+      for (AbstractBundle aux : bundles)
       {
-         if (aux.getSymbolicName().equals(symbolicName))
-         {
-            if (versionRange == null || XVersionRange.parse(versionRange).isInRange(aux.getVersion()))
-            {
-               result = aux;
-               break;
-            }
-         }
+         if (aux.getState() == Bundle.UNINSTALLED)
+            continue;
+
+         if (versionRange == null)
+            return aux;
+
+         if (range == null)
+            range = XVersionRange.parse(versionRange);
+
+         if (range.isInRange(aux.getVersion()))
+            return aux;
       }
-      return result;
+      return null;
    }
 
    /**
@@ -366,6 +444,390 @@ public class BundleManager
       return install(root, location, false);
    }
 
+   /**
+    * Install the bundles from the given locations.
+    * 
+    * The bundle content is read and its metadata is parsed on a pool of worker threads. The bundles
+    * are then created, validated and registered one after the other in the order of the locations, 
+    * so that the bundle ids are assigned in that order.
+    * 
+    * @return The installed bundles in the order of the locations
+    * @throws BundleException If a bundle cannot be installed. The bundles before it remain installed.
+    */
+   public List<AbstractBundle> installBundles(List<URL> locations) throws BundleException
+   {
+      if (locations == null)
+         throw new IllegalArgumentException("Null locations");
+      if (locations.isEmpty())
+         return Collections.emptyList();
+
+      int poolSize = Math.min(locations.size(), Runtime.getRuntime().availableProcessors());
+      ExecutorService executor = getFrameworkState().getExecutorFactory().newThreadPool("jbosgi-bundle-install", poolSize, true);
+      try
+      {
+         // Set when a bundle cannot be installed, the remaining deployments are not created anymore
+         final AtomicBoolean discarded = new AtomicBoolean();
+         List<Future<Deployment>> futures = new ArrayList<Future<Deployment>>(locations.size());
+         for (final URL location : locations)
+         {
+            futures.add(executor.submit(new Callable<Deployment>()
+            {
+               public Deployment call() throws Exception
+               {
+                  if (discarded.get())
+                     return null;
+
+                  // Bundles that were restored from the bundle cache are not read again
+                  String locationStr = location.toExternalForm();
+                  if (getBundleByLocation(locationStr) != null)
+                     return null;
+
+                  return createDeployment(location, locationStr);
+               }
+            }));
+         }
+
+         List<AbstractBundle> result = new ArrayList<AbstractBundle>(locations.size());
+         for (int i = 0; i < futures.size(); i++)
+         {
+            try
+            {
+               URL location = locations.get(i);
+               Deployment dep = getDeployment(futures.get(i), location);
+               result.add(dep != null ? installBundle(dep) : getBundleByLocation(location.toExternalForm()));
+            }
+            catch (BundleException ex)
+            {
+               discarded.set(true);
+               discardDeployments(futures.subList(i + 1, futures.size()));
+               throw ex;
+            }
+         }
+         return Collections.unmodifiableList(result);
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+   }
+
+   private Deployment getDeployment(Future<Deployment> future, URL location) throws BundleException
+   {
+      try
+      {
+         return future.get();
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         throw new BundleException("Interrupted while installing: " + location, ex);
+      }
+      catch (ExecutionException ex)
+      {
+         Throwable cause = ex.getCause();
+         if (cause instanceof BundleException)
+            throw (BundleException)cause;
+
+         throw new BundleException("Cannot install bundle: " + location, cause);
+      }
+   }
+
+   /**
+    * Release the content of deployments that are not going to be installed.
+    * Every task is waited for, a task that is already running still creates its deployment.
+    */
+   private void discardDeployments(List<Future<Deployment>> futures)
+   {
+      boolean interrupted = false;
+      for (Future<Deployment> future : futures)
+      {
+         while (true)
+         {
+            try
+            {
+               Deployment dep = future.get();
+               if (dep != null)
+                  deleteContentRoot(dep.getRoot());
+               break;
+            }
+            catch (InterruptedException ex)
+            {
+               interrupted = true;
+            }
+            catch (ExecutionException ex)
+            {
+               // The deployment failed, there is nothing to release
+               break;
+            }
+         }
+      }
+
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }
+
+   private boolean isBundleCacheEnabled()
+   {
+      // Frameworks without a configured storage area share the temp dir, they must not see each other's bundles
+      if (frameworkState.getProperty(Constants.FRAMEWORK_STORAGE) == null)
+         return false;
+
+      String cacheProp = frameworkState.getProperty(PROP_BUNDLE_CACHE);
+      return cacheProp == null || Boolean.parseBoolean(cacheProp);
+   }
+
+   /**
+    * Write the installed bundles and the snapshot of their headers to the bundle cache. 
+    * The content of a bundle revision is stored in the cache once.
+    */
+   void storeBundleCache() throws IOException
+   {
+      BundleStoragePlugin storagePlugin = getOptionalPlugin(BundleStoragePlugin.class);
+      if (storagePlugin == null || isBundleCacheEnabled() == false)
+         return;
+
+      List<BundleCacheEntry> entries = new ArrayList<BundleCacheEntry>();
+      for (AbstractBundle aux : getBundles())
+      {
+         if (aux instanceof AbstractUserBundle == false)
+            continue;
+
+         try
+         {
+            AbstractUserBundle userBundle = (AbstractUserBundle)aux;
+            entries.add(createBundleCacheEntry(storagePlugin, userBundle, getManifestHeaders(userBundle)));
+         }
+         catch (IOException ex)
+         {
+            fireError(aux, "caching", ex);
+         }
+      }
+      storagePlugin.storeBundleCache(entries);
+   }
+
+   /**
+    * Write the bundle cache entry of an installed bundle, after it was installed or updated 
+    * or its start level or persistent autostart setting changed.
+    */
+   void storeBundleCacheEntry(AbstractUserBundle userBundle)
+   {
+      // The entries of restored bundles are already in the cache
+      if (restoringBundleCache)
+         return;
+
+      BundleStoragePlugin storagePlugin = getOptionalPlugin(BundleStoragePlugin.class);
+      if (storagePlugin == null || isBundleCacheEnabled() == false)
+         return;
+
+      // The bundle is not registered yet or was uninstalled
+      if (getBundleById(userBundle.getBundleId()) != userBundle || userBundle.getState() == Bundle.UNINSTALLED)
+         return;
+
+      try
+      {
+         storagePlugin.storeBundleCacheEntry(createBundleCacheEntry(storagePlugin, userBundle, null));
+      }
+      catch (IOException ex)
+      {
+         fireError(userBundle, "caching", ex);
+      }
+   }
+
+   /**
+    * Remove the bundle cache entry of an uninstalled bundle
+    */
+   void removeBundleCacheEntry(AbstractUserBundle userBundle)
+   {
+      BundleStoragePlugin storagePlugin = getOptionalPlugin(BundleStoragePlugin.class);
+      if (storagePlugin == null || isBundleCacheEnabled() == false)
+         return;
+
+      storagePlugin.removeBundleCacheEntry(userBundle.getBundleId());
+   }
+
+   private BundleCacheEntry createBundleCacheEntry(BundleStoragePlugin storagePlugin, AbstractUserBundle userBundle, Map<String, String> headers) throws IOException
+   {
+      int revision = userBundle.getRevisionCounter();
+      String contentName = "bundle-" + userBundle.getBundleId() + "-rev" + revision + ".jar";
+      storagePlugin.storeBundleCacheContent(contentName, userBundle.getContentRoot());
+
+      int startLevel = StartLevelPlugin.BUNDLE_STARTLEVEL_UNSPECIFIED;
+      boolean started = false;
+      if (userBundle instanceof HostBundle)
+      {
+         startLevel = ((HostBundle)userBundle).getStartLevel();
+         started = ((HostBundle)userBundle).isPersistentlyStarted();
+      }
+      return new BundleCacheEntry(userBundle.getBundleId(), userBundle.getLocation(), revision, startLevel, started, contentName, headers);
+   }
+
+   /**
+    * Get the headers of a bundle that was installed from an OSGi manifest. 
+    * @return The headers or null for a bundle with generated metadata
+    */
+   private Map<String, String> getManifestHeaders(AbstractUserBundle userBundle)
+   {
+      Deployment dep = userBundle.getDeployment();
+      if (dep.getAttachment(BundleInfo.class) == null && dep.getAttachment(Manifest.class) == null)
+         return null;
+
+      Dictionary<String, String> rawHeaders = userBundle.getOSGiMetaData().getHeaders();
+      Map<String, String> headers = new LinkedHashMap<String, String>();
+      Enumeration<String> keys = rawHeaders.keys();
+      while (keys.hasMoreElements())
+      {
+         String key = keys.nextElement();
+         headers.put(key, rawHeaders.get(key));
+      }
+      return headers;
+   }
+
+   /**
+    * Reinstall the bundles from the bundle cache with their previous ids, start levels and persistent autostart settings.
+    * The bundles are installed from the cached content, the original locations are not accessed. 
+    */
+   void restoreBundleCache()
+   {
+      BundleStoragePlugin storagePlugin = getOptionalPlugin(BundleStoragePlugin.class);
+      if (storagePlugin == null || isBundleCacheEnabled() == false)
+         return;
+
+      List<BundleCacheEntry> entries;
+      try
+      {
+         entries = storagePlugin.loadBundleCache();
+      }
+      catch (IOException ex)
+      {
+         fireError(null, "reading bundle cache", ex);
+         return;
+      }
+
+      restoringBundleCache = true;
+      try
+      {
+         restoreBundleCache(storagePlugin, entries);
+      }
+      finally
+      {
+         restoringBundleCache = false;
+      }
+   }
+
+   private void restoreBundleCache(BundleStoragePlugin storagePlugin, List<BundleCacheEntry> entries)
+   {
+      long maxBundleId = identityGenerator.get();
+      for (BundleCacheEntry entry : entries)
+      {
+         // A framework that is initialized again still has its bundles
+         if (getBundleByLocation(entry.getLocation()) != null)
+            continue;
+
+         File contentFile = new File(storagePlugin.getBundleCacheDir(), entry.getContentName());
+         try
+         {
+            // The entries are in ascending id order, the bundle gets its previous id
+            identityGenerator.set(entry.getBundleId() - 1);
+            URL contentURL = contentFile.toURI().toURL();
+            Deployment dep = null;
+            if (entry.getHeaders() != null)
+               dep = createDeployment(contentURL, entry.getLocation(), entry.getHeaders());
+            if (dep == null)
+               dep = createDeployment(contentURL, entry.getLocation());
+            AbstractBundle bundleState = installBundle(dep);
+
+            ((AbstractUserBundle)bundleState).restoreRevisionCounter(entry.getRevision());
+            if (bundleState instanceof HostBundle)
+            {
+               HostBundle hostBundle = (HostBundle)bundleState;
+               if (entry.getStartLevel() != StartLevelPlugin.BUNDLE_STARTLEVEL_UNSPECIFIED)
+                  hostBundle.setStartLevel(entry.getStartLevel());
+               hostBundle.setPersistentlyStarted(entry.isPersistentlyStarted());
+            }
+         }
+         catch (Exception ex)
+         {
+            fireError(null, "restoring bundle: " + entry.getLocation(), ex);
+         }
+         maxBundleId = Math.max(maxBundleId, entry.getBundleId());
+      }
+      identityGenerator.set(Math.max(maxBundleId, identityGenerator.get()));
+   }
+
+   /**
+    * Read the bundle content from the given location and create the deployment with its metadata.
+    * This does not modify the state of the bundle manager and may be called concurrently.
+    */
+   private Deployment createDeployment(URL locationURL, String location) throws BundleException
+   {
+      VirtualFile root;
+      try
+      {
+         root = AbstractVFS.getRoot(locationURL);
+      }
+      catch (IOException e)
+      {
+         throw new BundleException("Invalid bundle location=" + locationURL, e);
+      }
+
+      try
+      {
+         BundleDeploymentPlugin plugin = getPlugin(BundleDeploymentPlugin.class);
+         Deployment dep = plugin.createDeployment(root, location);
+         OSGiMetaData metadata = plugin.createOSGiMetaData(dep);
+         dep.addAttachment(OSGiMetaData.class, metadata);
+         return dep;
+      }
+      catch (BundleException ex)
+      {
+         deleteContentRoot(root);
+         throw ex;
+      }
+   }
+
+   /**
+    * Create the deployment from the snapshot headers of a cached bundle, without reading its manifest.
+    * The header values are parsed into the bundle metadata like the headers of a manifest.
+    * @return The deployment or null if the headers do not define a valid bundle
+    */
+   private Deployment createDeployment(URL contentURL, String location, Map<String, String> headers) throws BundleException
+   {
+      Manifest manifest = new Manifest();
+      Attributes attributes = manifest.getMainAttributes();
+      try
+      {
+         for (Map.Entry<String, String> header : headers.entrySet())
+            attributes.putValue(header.getKey(), header.getValue());
+      }
+      catch (IllegalArgumentException ex)
+      {
+         // Not a valid manifest header name, read the manifest from the content
+         return null;
+      }
+
+      VirtualFile root;
+      try
+      {
+         root = AbstractVFS.getRoot(contentURL);
+      }
+      catch (IOException e)
+      {
+         throw new BundleException("Invalid bundle location=" + contentURL, e);
+      }
+
+      try
+      {
+         BundleDeploymentPlugin plugin = getPlugin(BundleDeploymentPlugin.class);
+         return plugin.createDeployment(root, location, manifest);
+      }
+      catch (BundleException ex)
+      {
+         // Read the manifest from the content
+         deleteContentRoot(root);
+         return null;
+      }
+   }
+
    /**
     * Install a bundle from the given {@link VirtualFile}
     */
@@ -417,10 +879,14 @@ public class BundleManager
 
    private AbstractBundle createBundle(Deployment dep) throws BundleException
    {
-      BundleDeploymentPlugin deploymentPlugin = getPlugin(BundleDeploymentPlugin.class);
-      OSGiMetaData metadata = deploymentPlugin.createOSGiMetaData(dep);
-
-      dep.addAttachment(OSGiMetaData.class, metadata);
+      // The metadata of a bulk install has been created already
+      OSGiMetaData metadata = dep.getAttachment(OSGiMetaData.class);
+      if (metadata == null)
+      {
+         BundleDeploymentPlugin deploymentPlugin = getPlugin(BundleDeploymentPlugin.class);
+         metadata = deploymentPlugin.createOSGiMetaData(dep);
+         dep.addAttachment(OSGiMetaData.class, metadata);
+      }
 
       // Create the bundle state
       boolean isFragment = metadata.getFragmentHost() != null;
@@ -529,11 +995,12 @@ public class BundleManager
       String contentRootPath = rootFile.getPathName();
       rootFile.close();
       
-      File streamDir = getPlugin(BundleStoragePlugin.class).getBundleStreamDir();
+      BundleStoragePlugin storagePlugin = getPlugin(BundleStoragePlugin.class);
+      File streamDir = storagePlugin.getBundleStreamDir();
       if (contentRootPath.startsWith(streamDir.getAbsolutePath()))
       {
          File file = new File(contentRootPath);
-         file.delete();
+         storagePlugin.deleteBundleStream(file);
       }
    }
 }
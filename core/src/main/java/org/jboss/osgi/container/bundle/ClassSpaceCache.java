@@ -0,0 +1,152 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.bundle;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.modules.ModuleIdentifier;
+
+/**
+ * Caches whether a requesting module and an owning module see the same class for a given class name.
+ *
+ * The class space of a module does not change while the module is registered with the {@link ModuleManager}.
+ * The entries of a module are removed when the module is removed from the {@link ModuleManager}, i.e. when the
+ * bundle is uninstalled or refreshed. The entries are indexed by module, so that removing them does not scan the cache.
+ *
+ * A module identifier can be reused by a module that is added later. Every removal starts a new generation,
+ * and a result is only cached if no module was removed since the caller got the generation before it computed the result.
+ *
+ * @since 18-Oct-2026
+ */
+final class ClassSpaceCache
+{
+   // The max number of cached entries, the cache is cleared when it is full
+   static final int MAX_ENTRIES = 16384;
+
+   private final Map<Key, Boolean> entries = new ConcurrentHashMap<Key, Boolean>();
+   private final ConcurrentMap<ModuleIdentifier, Set<Key>> moduleKeys = new ConcurrentHashMap<ModuleIdentifier, Set<Key>>();
+   private final AtomicLong generation = new AtomicLong();
+
+   /**
+    * Get the current generation, which changes whenever the entries of a module are removed
+    */
+   long getGeneration()
+   {
+      return generation.get();
+   }
+
+   /**
+    * Get the cached consistency of the given class between the two modules
+    * @return The cached value or null
+    */
+   Boolean get(ModuleIdentifier requester, ModuleIdentifier owner, String className)
+   {
+      return entries.get(new Key(requester, owner, className));
+   }
+
+   /**
+    * Cache the consistency of the given class between the two modules
+    * @param generation The generation that was current before the consistency was computed
+    */
+   void put(ModuleIdentifier requester, ModuleIdentifier owner, String className, boolean consistent, long generation)
+   {
+      if (entries.size() >= MAX_ENTRIES)
+      {
+         entries.clear();
+         moduleKeys.clear();
+      }
+
+      Key key = new Key(requester, owner, className);
+      getModuleKeys(requester).add(key);
+      getModuleKeys(owner).add(key);
+      entries.put(key, Boolean.valueOf(consistent));
+
+      // A module was removed concurrently, the result may belong to a module that no longer exists
+      if (this.generation.get() != generation)
+         entries.remove(key);
+   }
+
+   /**
+    * Remove all entries that involve the given module
+    */
+   void invalidate(ModuleIdentifier identifier)
+   {
+      // Start the new generation before the entries are removed, so that a concurrent put removes its own entry
+      generation.incrementAndGet();
+
+      Set<Key> keys = moduleKeys.remove(identifier);
+      if (keys != null)
+      {
+         for (Key key : keys)
+            entries.remove(key);
+      }
+   }
+
+   private Set<Key> getModuleKeys(ModuleIdentifier identifier)
+   {
+      Set<Key> keys = moduleKeys.get(identifier);
+      if (keys == null)
+      {
+         keys = Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
+         Set<Key> existing = moduleKeys.putIfAbsent(identifier, keys);
+         if (existing != null)
+            keys = existing;
+      }
+      return keys;
+   }
+
+   private static final class Key
+   {
+      private final ModuleIdentifier requester;
+      private final ModuleIdentifier owner;
+      private final String className;
+      private final int hashCode;
+
+      Key(ModuleIdentifier requester, ModuleIdentifier owner, String className)
+      {
+         this.requester = requester;
+         this.owner = owner;
+         this.className = className;
+         this.hashCode = (31 * requester.hashCode() + owner.hashCode()) * 31 + className.hashCode();
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hashCode;
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (obj instanceof Key == false)
+            return false;
+         Key other = (Key)obj;
+         return className.equals(other.className) && requester.equals(other.requester) && owner.equals(other.owner);
+      }
+   }
+}
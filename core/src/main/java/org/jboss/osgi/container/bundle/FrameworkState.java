@@ -21,6 +21,7 @@
  */
 package org.jboss.osgi.container.bundle;
 
+import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
@@ -30,7 +31,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.logging.Logger;
@@ -40,6 +40,7 @@ import org.jboss.osgi.container.plugin.FrameworkEventsPlugin;
 import org.jboss.osgi.container.plugin.Plugin;
 import org.jboss.osgi.container.plugin.ResolverPlugin;
 import org.jboss.osgi.container.plugin.StartLevelPlugin;
+import org.jboss.osgi.container.util.ExecutorFactory;
 import org.jboss.osgi.container.util.Java;
 import org.jboss.osgi.spi.NotImplementedException;
 import org.jboss.osgi.spi.util.ConstantsHelper;
@@ -80,8 +81,10 @@ public class FrameworkState
    private Map<String, String> properties;
    // The framework stop monitor
    private AtomicInteger stopMonitor = new AtomicInteger(0);
+   // The factory for the executors used by the framework
+   private ExecutorFactory executorFactory;
    // The framework stop executor 
-   private Executor stopExecutor = Executors.newFixedThreadPool(10);
+   private Executor stopExecutor;
 
    static
    {
@@ -136,6 +139,11 @@ public class FrameworkState
          setProperty(Constants.FRAMEWORK_VENDOR, OSGi_FRAMEWORK_VENDOR);
       if (getProperty(Constants.FRAMEWORK_VERSION) == null)
          setProperty(Constants.FRAMEWORK_VERSION, OSGi_FRAMEWORK_VERSION);
+
+      // Init the threading model
+      boolean virtualThreads = Boolean.parseBoolean(getProperty(ExecutorFactory.PROP_VIRTUAL_THREADS));
+      executorFactory = new ExecutorFactory(virtualThreads);
+      stopExecutor = executorFactory.newThreadPool("jbosgi-framework-stop", 10, false);
    }
 
    public SystemBundle getSystemBundle()
@@ -143,6 +151,14 @@ public class FrameworkState
       return bundleManager.getSystemBundle();
    }
 
+   /**
+    * Get the factory for the executors that are used by the framework
+    */
+   public ExecutorFactory getExecutorFactory()
+   {
+      return executorFactory;
+   }
+
    public Map<String, String> getProperties()
    {
       return Collections.unmodifiableMap(properties);
@@ -236,6 +252,9 @@ public class FrameworkState
       BundleStoragePlugin storagePlugin = bundleManager.getOptionalPlugin(BundleStoragePlugin.class);
       if (storagePlugin != null)
          storagePlugin.cleanStorage(storageClean);
+
+      // Have reified Bundle objects for all installed bundles
+      bundleManager.restoreBundleCache();
    }
 
    public void startFramework() throws BundleException
@@ -336,6 +355,16 @@ public class FrameworkState
          getSystemBundle().changeState(Bundle.STOPPING);
       }
 
+      // Persist the installed bundles while their autostart settings are still in place
+      try
+      {
+         bundleManager.storeBundleCache();
+      }
+      catch (IOException ex)
+      {
+         log.error("Cannot store bundle cache", ex);
+      }
+
       // Move to start level 0 in the current thread
       StartLevelPlugin startLevel = bundleManager.getOptionalPlugin(StartLevelPlugin.class);
       if (startLevel != null)
@@ -24,6 +24,7 @@ package org.jboss.osgi.container.bundle;
 import java.util.List;
 
 import org.jboss.osgi.container.plugin.FrameworkEventsPlugin;
+import org.jboss.osgi.container.plugin.ServiceManagerPlugin;
 import org.jboss.osgi.container.plugin.StartLevelPlugin;
 import org.jboss.osgi.deployment.deployer.Deployment;
 import org.jboss.osgi.metadata.OSGiMetaData;
@@ -135,7 +136,10 @@ public class HostBundle extends AbstractUserBundle
 
    public void setStartLevel(int sl)
    {
+      boolean changed = (startLevel != sl);
       startLevel = sl;
+      if (changed)
+         getBundleManager().storeBundleCacheEntry(this);
    }
 
    public boolean isPersistentlyStarted()
@@ -145,7 +149,10 @@ public class HostBundle extends AbstractUserBundle
 
    public void setPersistentlyStarted(boolean started)
    {
+      boolean changed = (persistentlyStarted != started);
       persistentlyStarted = started;
+      if (changed)
+         getBundleManager().storeBundleCacheEntry(this);
    }
 
    @Override
@@ -300,8 +307,15 @@ public class HostBundle extends AbstractUserBundle
       }
 
       // Any services registered by this bundle must be unregistered
-      for (ServiceState serviceState : getRegisteredServicesInternal())
-         serviceState.unregister();
+      ServiceManagerPlugin serviceManager = getServiceManagerPlugin();
+      serviceManager.unregisterServices(this);
+
+      // Any services used by this bundle must be released
+      for (ServiceState serviceState : getServicesInUseInternal())
+      {
+         while (serviceManager.ungetService(this, serviceState))
+            ;
+      }
 
       // [TODO] Any listeners registered by this bundle must be removed
 
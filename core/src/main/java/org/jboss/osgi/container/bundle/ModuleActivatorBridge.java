@@ -61,8 +61,9 @@ public class ModuleActivatorBridge implements BundleActivator
       ModuleIdentifier identifier = bundleState.getModuleIdentifier();
       Module module = moduleManager.getModule(identifier);
       
+      // The xservices that the module installs are registered with the service manager
       ServiceManagerPlugin serviceManager = bundleManager.getPlugin(ServiceManagerPlugin.class);
-      ServiceContainer serviceContainer = serviceManager.getServiceContainer();
+      ServiceContainer serviceContainer = serviceManager.getServiceContainer(bundleState);
       BundleContext systemContext = bundleManager.getSystemContext();
       
       moduleContext = new ModuleContextImpl(serviceContainer, module, systemContext, context.getBundle());
@@ -80,6 +80,8 @@ public class ModuleManager extends ModuleLoader
    private ModuleIdentifier frameworkIdentifier;
    // The modules that are registered with this {@link ModuleLoader}
    private Map<ModuleIdentifier, ModuleHolder> modules = Collections.synchronizedMap(new LinkedHashMap<ModuleIdentifier, ModuleHolder>());
+   // The cached class space consistency between modules
+   private final ClassSpaceCache classSpaceCache = new ClassSpaceCache();
 
    public ModuleManager(BundleManager bundleManager)
    {
@@ -430,9 +432,37 @@ public class ModuleManager extends ModuleLoader
       // The module should remove automatically from the ModuleLoader
       // through Garbage Collection as it uses weak references.
       ModuleHolder moduleHolder = modules.remove(identifier);
+      classSpaceCache.invalidate(identifier);
       return (moduleHolder != null ? moduleHolder.module : null);
    }
 
+   /**
+    * Get the cached result of a class space consistency check, i.e. whether the requesting 
+    * module loads the same class for the given name as the owning module.
+    * @return The cached result or null
+    */
+   public Boolean getClassSpaceConsistency(ModuleIdentifier requester, ModuleIdentifier owner, String className)
+   {
+      return classSpaceCache.get(requester, owner, className);
+   }
+
+   /**
+    * Get the generation of the class space consistency cache, which changes whenever a module is removed
+    */
+   public long getClassSpaceGeneration()
+   {
+      return classSpaceCache.getGeneration();
+   }
+
+   /**
+    * Cache the result of a class space consistency check until either module is removed
+    * @param generation The generation that was current before the check was done
+    */
+   public void putClassSpaceConsistency(ModuleIdentifier requester, ModuleIdentifier owner, String className, boolean consistent, long generation)
+   {
+      classSpaceCache.put(requester, owner, className, consistent, generation);
+   }
+
    public static String getPathFromClassName(final String className)
    {
       int idx = className.lastIndexOf('.');
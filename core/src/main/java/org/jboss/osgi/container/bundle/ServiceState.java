@@ -21,25 +21,26 @@
 */
 package org.jboss.osgi.container.bundle;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Dictionary;
-import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.logging.Logger;
+import org.jboss.modules.ModuleIdentifier;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.osgi.container.plugin.FrameworkEventsPlugin;
+import org.jboss.osgi.container.plugin.ModuleManagerPlugin;
 import org.jboss.osgi.container.plugin.ServiceManagerPlugin;
-import org.jboss.osgi.metadata.CaseInsensitiveDictionary;
+import org.jboss.osgi.container.util.ServiceMetrics;
+import org.jboss.osgi.container.util.ServiceProperties;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 import org.osgi.framework.FrameworkEvent;
@@ -61,32 +62,37 @@ public class ServiceState implements ServiceRegistration, ServiceReference
    // Provide logging
    private static final Logger log = Logger.getLogger(ServiceState.class);
 
+   // Returned by an evicted factory holder, the caller must get a new holder
+   private static final Object EVICTED_FACTORY_VALUE = new Object();
+
    // The service id 
    private long serviceId;
    // The bundle that ownes this service
    private AbstractBundle ownerBundle;
-   // The bundles that use this service
-   private Set<AbstractBundle> usingBundles;
+   // The bundles that use this service with their use counts, which are shared with {@link AbstractBundle}
+   private final ConcurrentMap<AbstractBundle, AtomicInteger> usingBundles = new ConcurrentHashMap<AbstractBundle, AtomicInteger>();
    // The list of service names associated with this service
    private List<ServiceName> serviceNames;
    // The service registration
    private ServiceRegistration registration;
    // The service reference
    private ServiceReference reference;
-   // The {@link ServiceFactory} value registry
-   private Map<Long, ServiceFactoryHolder> factoryValues;
+   // The {@link ServiceFactory} values by the id of the consuming bundle
+   private final ConcurrentMap<Long, ServiceFactoryHolder> factoryValues = new ConcurrentHashMap<Long, ServiceFactoryHolder>();
    // The service object value
    private Object value;
 
-   // The properties 
-   private CaseInsensitiveDictionary prevProperties;
-   private CaseInsensitiveDictionary currProperties;
+   // The immutable properties 
+   private volatile ServiceProperties prevProperties;
+   private volatile ServiceProperties currProperties;
+   // The cached service ranking
+   private volatile int serviceRanking;
 
    // Cache commonly used plugins
    private ServiceManagerPlugin serviceManager;
    private FrameworkEventsPlugin eventsPlugin;
+   private ModuleManagerPlugin moduleManager;
 
-   @SuppressWarnings("unchecked")
    public ServiceState(AbstractBundle owner, long serviceId, ServiceName[] serviceNames, String[] clazzes, Object value, Dictionary properties)
    {
       if (owner == null)
@@ -100,6 +106,7 @@ public class ServiceState implements ServiceRegistration, ServiceReference
 
       this.serviceManager = owner.getServiceManagerPlugin();
       this.eventsPlugin = owner.getFrameworkEventsPlugin();
+      this.moduleManager = owner.getBundleManager().getPlugin(ModuleManagerPlugin.class);
 
       this.serviceNames = Arrays.asList(serviceNames);
       this.serviceId = serviceId;
@@ -109,12 +116,8 @@ public class ServiceState implements ServiceRegistration, ServiceReference
       if (checkValidClassNames(owner, clazzes, value) == false)
          throw new IllegalArgumentException("Invalid object class in: " + Arrays.asList(clazzes));
 
-      if (properties == null)
-         properties = new Hashtable();
-
-      properties.put(Constants.SERVICE_ID, serviceId);
-      properties.put(Constants.OBJECTCLASS, clazzes);
-      this.currProperties = new CaseInsensitiveDictionary(properties);
+      this.currProperties = new ServiceProperties(properties, serviceId, clazzes);
+      this.serviceRanking = getServiceRanking(currProperties);
 
       // Create the {@link ServiceRegistration} and {@link ServiceReference}
       this.registration = new ServiceRegistrationWrapper(this);
@@ -156,18 +159,21 @@ public class ServiceState implements ServiceRegistration, ServiceReference
       Object result = null;
       try
       {
-         if (factoryValues == null)
-            factoryValues = new HashMap<Long, ServiceFactoryHolder>();
-
-         ServiceFactoryHolder factoryHolder = factoryValues.get(bundleState.getBundleId());
-         if (factoryHolder == null)
+         do
          {
-            ServiceFactory factory = (ServiceFactory)value;
-            factoryHolder = new ServiceFactoryHolder(bundleState, factory);
-            factoryValues.put(bundleState.getBundleId(), factoryHolder);
-         }
+            Long bundleId = bundleState.getBundleId();
+            ServiceFactoryHolder factoryHolder = factoryValues.get(bundleId);
+            if (factoryHolder == null)
+            {
+               ServiceFactoryHolder newHolder = new ServiceFactoryHolder(bundleState, (ServiceFactory)value);
+               factoryHolder = factoryValues.putIfAbsent(bundleId, newHolder);
+               if (factoryHolder == null)
+                  factoryHolder = newHolder;
+            }
 
-         result = factoryHolder.getService();
+            result = factoryHolder.getService();
+         }
+         while (result == EVICTED_FACTORY_VALUE);
 
          // If the service object returned by the ServiceFactory object is not an instanceof all the classes named 
          // when the service was registered or the ServiceFactory object throws an exception, 
@@ -194,7 +200,8 @@ public class ServiceState implements ServiceRegistration, ServiceReference
          try
          {
             ServiceFactoryHolder factoryHolder = factoryValues.get(bundleState.getBundleId());
-            factoryHolder.ungetService();
+            if (factoryHolder != null)
+               factoryHolder.ungetService();
          }
          catch (RuntimeException rte)
          {
@@ -221,12 +228,30 @@ public class ServiceState implements ServiceRegistration, ServiceReference
       return reference;
    }
 
+   /**
+    * Get the canonical reference without checking the registration state
+    */
+   public ServiceReference getReferenceInternal()
+   {
+      return reference;
+   }
+
    @Override
    public void unregister()
    {
       assertNotUnregistered();
       serviceManager.unregisterService(this);
-      usingBundles = null;
+      unregisterInternal();
+   }
+
+   /**
+    * Mark the service as unregistered after it has been removed from the registry.
+    * This should only be called by the {@link ServiceManagerPlugin}.
+    */
+   public void unregisterInternal()
+   {
+      usingBundles.clear();
+      factoryValues.clear();
       registration = null;
    }
 
@@ -241,38 +266,53 @@ public class ServiceState implements ServiceRegistration, ServiceReference
    @Override
    public String[] getPropertyKeys()
    {
-      List<String> result = new ArrayList<String>();
-      if (currProperties != null)
-      {
-         Enumeration<String> keys = currProperties.keys();
-         while (keys.hasMoreElements())
-            result.add(keys.nextElement());
-      }
-      return result.toArray(new String[result.size()]);
+      return currProperties.getKeys();
+   }
+
+   /**
+    * Get a snapshot of the current service properties
+    */
+   public ServiceProperties getProperties()
+   {
+      return currProperties;
    }
 
    @Override
-   @SuppressWarnings({ "unchecked" })
    public void setProperties(Dictionary properties)
    {
       assertNotUnregistered();
 
-      // Remember the previous properties for a potential
-      // delivery of the MODIFIED_ENDMATCH event
-      prevProperties = currProperties;
-
-      if (properties == null)
-         properties = new Hashtable();
-
-      properties.put(Constants.SERVICE_ID, currProperties.get(Constants.SERVICE_ID));
-      properties.put(Constants.OBJECTCLASS, currProperties.get(Constants.OBJECTCLASS));
-      currProperties = new CaseInsensitiveDictionary(properties);
+      // Modify the properties through the service manager, which maintains the registry index
+      serviceManager.updateServiceProperties(this, properties);
 
       // This event is synchronously delivered after the service properties have been modified. 
       eventsPlugin.fireServiceEvent(ownerBundle, ServiceEvent.MODIFIED, this);
    }
 
-   public Dictionary getPreviousProperties()
+   /**
+    * Create the properties that replace the current properties of this service. 
+    * The service id and object classes are retained.
+    * @throws IllegalArgumentException If the properties contain the same key in different case
+    */
+   public ServiceProperties createProperties(Dictionary properties)
+   {
+      return new ServiceProperties(properties, serviceId, (String[])currProperties.get(Constants.OBJECTCLASS));
+   }
+
+   /**
+    * Modify the service properties without firing the MODIFIED event.
+    * This should only be called by the {@link ServiceManagerPlugin}.
+    */
+   public void setPropertiesInternal(ServiceProperties props)
+   {
+      // Remember the previous properties for a potential
+      // delivery of the MODIFIED_ENDMATCH event
+      prevProperties = currProperties;
+      currProperties = props;
+      serviceRanking = getServiceRanking(props);
+   }
+
+   public ServiceProperties getPreviousProperties()
    {
       return prevProperties;
    }
@@ -291,52 +331,47 @@ public class ServiceState implements ServiceRegistration, ServiceReference
       return ownerBundle.getBundleWrapper();
    }
 
-   public void addUsingBundle(AbstractBundle bundleState)
+   // Called by the using bundle when its use count for this service is created
+   void addUsingBundle(AbstractBundle bundleState, AtomicInteger useCount)
    {
-      synchronized (this)
-      {
-         if (usingBundles == null)
-            usingBundles = new HashSet<AbstractBundle>();
-
-         usingBundles.add(bundleState);
-      }
+      usingBundles.put(bundleState, useCount);
    }
 
-   public void removeUsingBundle(AbstractBundle bundleState)
+   // Called by the using bundle when its use count for this service dropped to zero
+   void removeUsingBundle(AbstractBundle bundleState, AtomicInteger useCount)
    {
-      synchronized (this)
-      {
-         if (usingBundles != null)
-            usingBundles.remove(bundleState);
-      }
+      usingBundles.remove(bundleState, useCount);
    }
 
    public Set<AbstractBundle> getUsingBundlesInternal()
    {
-      synchronized (this)
-      {
-         if (usingBundles == null)
-            return Collections.emptySet();
+      if (usingBundles.isEmpty())
+         return Collections.emptySet();
 
-         // Return an unmodifieable snapshot of the set
-         return Collections.unmodifiableSet(new HashSet<AbstractBundle>(usingBundles));
+      // A use count that was released concurrently may still be in the map
+      Set<AbstractBundle> result = new HashSet<AbstractBundle>();
+      for (Map.Entry<AbstractBundle, AtomicInteger> entry : usingBundles.entrySet())
+      {
+         if (entry.getValue().get() > 0)
+            result.add(entry.getKey());
       }
+
+      // Return an unmodifieable snapshot of the set
+      return Collections.unmodifiableSet(result);
    }
 
    @Override
    public Bundle[] getUsingBundles()
    {
-      synchronized (this)
-      {
-         if (usingBundles == null)
-            return null;
+      Set<AbstractBundle> usingBundles = getUsingBundlesInternal();
+      if (usingBundles.isEmpty())
+         return null;
 
-         Set<Bundle> bundles = new HashSet<Bundle>();
-         for (AbstractBundle aux : usingBundles)
-            bundles.add(aux.getBundleWrapper());
+      Set<Bundle> bundles = new HashSet<Bundle>();
+      for (AbstractBundle aux : usingBundles)
+         bundles.add(aux.getBundleWrapper());
 
-         return bundles.toArray(new Bundle[bundles.size()]);
-      }
+      return bundles.toArray(new Bundle[bundles.size()]);
    }
 
    @Override
@@ -347,9 +382,28 @@ public class ServiceState implements ServiceRegistration, ServiceReference
       if (className == null)
          throw new IllegalArgumentException("Null className");
       
-      if (ownerBundle == AbstractBundle.assertBundleState(bundle))
+      AbstractBundle bundleState = AbstractBundle.assertBundleState(bundle);
+      if (ownerBundle == bundleState)
          return true;
       
+      // The class space of a resolved bundle does not change until its module is removed
+      if (bundleState.isResolved() == false || ownerBundle.isResolved() == false)
+         return isAssignableInternal(bundle, className);
+      
+      ModuleIdentifier requesterId = bundleState.getModuleIdentifier();
+      ModuleIdentifier ownerId = ownerBundle.getModuleIdentifier();
+      long generation = moduleManager.getClassSpaceGeneration();
+      Boolean cached = moduleManager.getClassSpaceConsistency(requesterId, ownerId, className);
+      if (cached != null)
+         return cached.booleanValue();
+      
+      boolean result = isAssignableInternal(bundle, className);
+      moduleManager.putClassSpaceConsistency(requesterId, ownerId, className, result, generation);
+      return result;
+   }
+
+   private boolean isAssignableInternal(Bundle bundle, String className)
+   {
       Class<?> targetClass = null;
       try
       {
@@ -393,9 +447,20 @@ public class ServiceState implements ServiceRegistration, ServiceReference
       return comparator.compare(this, (ServiceReference)sref);
    }
 
-   int getServiceRanking()
+   /**
+    * Get the service ranking. The value is cached and refreshed when the properties are modified.
+    */
+   public int getServiceRanking()
+   {
+      return serviceRanking;
+   }
+
+   /**
+    * Get the service ranking from the given properties
+    */
+   public static int getServiceRanking(Dictionary properties)
    {
-      Object prop = getProperty(Constants.SERVICE_RANKING);
+      Object prop = properties.get(Constants.SERVICE_RANKING);
       if (prop instanceof Integer == false)
          return 0;
       
@@ -417,6 +482,15 @@ public class ServiceState implements ServiceRegistration, ServiceReference
    {
       if (value instanceof ServiceFactory)
          return true;
+      if (value == null)
+         return false;
+
+      // Registrations of the same service type skip class loading and the assignability check
+      AbstractRevision revision = bundleState.getCurrentRevision();
+      ServiceTypeCache typeCache = revision.getServiceTypeCache();
+      Class<?> valueClass = value.getClass();
+      if (typeCache.isAssignable(valueClass, clazzeNames))
+         return true;
 
       for (String clazzName : clazzeNames)
       {
@@ -425,10 +499,10 @@ public class ServiceState implements ServiceRegistration, ServiceReference
 
          try
          {
-            Class<?> clazz = bundleState.loadClass(clazzName);
-            if (clazz.isAssignableFrom(value.getClass()) == false)
+            Class<?> clazz = typeCache.loadClass(revision, clazzName);
+            if (clazz.isAssignableFrom(valueClass) == false)
             {
-               log.error("Service interface [" + clazzName + "] is not assignable from [" + value.getClass().getName() + "]");
+               log.error("Service interface [" + clazzName + "] is not assignable from [" + valueClass.getName() + "]");
                return false;
             }
          }
@@ -438,67 +512,80 @@ public class ServiceState implements ServiceRegistration, ServiceReference
             return false;
          }
       }
+      typeCache.putAssignable(valueClass, clazzeNames);
       return true;
    }
 
    @Override
-   @SuppressWarnings("unchecked")
    public String toString()
    {
-      Hashtable<String, Object> props = new Hashtable<String, Object>(currProperties);
-      String[] classes = (String[])props.get(Constants.OBJECTCLASS);
-      props.put(Constants.OBJECTCLASS, Arrays.asList(classes));
-      return "ServiceState" + props;
+      return "ServiceState" + currProperties;
    }
 
+   /**
+    * The value of a {@link ServiceFactory} for a single consuming bundle.
+    * 
+    * The factory is called once until the bundle has released the value. The holder is 
+    * evicted when its use count drops to zero, i.e. when the bundle ungets the service 
+    * for the last time, which also happens when the bundle stops or the service is unregistered. 
+    */
    class ServiceFactoryHolder
    {
-      ServiceFactory factory;
-      AbstractBundle bundleState;
-      AtomicInteger useCount;
-      Object value;
+      private final ServiceFactory factory;
+      private final AbstractBundle bundleState;
+      private int useCount;
+      private Object value;
+      private boolean evicted;
 
       ServiceFactoryHolder(AbstractBundle bundleState, ServiceFactory factory)
       {
          this.bundleState = bundleState;
          this.factory = factory;
-         this.useCount = new AtomicInteger();
       }
 
-      Object getService()
+      // The Framework must not allow the factory to be concurrently called for the same bundle.
+      // The lock is per service and bundle, so that calls to other factories are not serialized.
+      synchronized Object getService()
       {
+         if (evicted)
+            return EVICTED_FACTORY_VALUE;
+
          // Multiple calls to getService() return the same value
-         if (useCount.get() == 0)
+         if (useCount == 0)
          {
-            // The Framework must not allow this method to be concurrently called for the same bundle
-            synchronized (bundleState)
-            {
-               Object retValue = factory.getService(bundleState.getBundleWrapper(), getRegistration());
+            long start = (ServiceMetrics.ENABLED ? System.nanoTime() : 0);
+            Object retValue = factory.getService(bundleState.getBundleWrapper(), getRegistration());
+            if (ServiceMetrics.ENABLED)
+               serviceManager.getServiceMetrics().factoryCall(System.nanoTime() - start);
 
-               // The Framework will check if the returned service object is an instance of all the 
-               // classes named when the service was registered. If not, then null is returned to the bundle.
-               if (checkValidClassNames(ownerBundle, (String[])getProperty(Constants.OBJECTCLASS), retValue) == false)
-                  return null;
+            // The Framework will check if the returned service object is an instance of all the 
+            // classes named when the service was registered. If not, then null is returned to the bundle.
+            if (checkValidClassNames(ownerBundle, (String[])getProperty(Constants.OBJECTCLASS), retValue) == false)
+               return null;
 
-               value = retValue;
-            }
+            value = retValue;
          }
 
-         useCount.incrementAndGet();
+         useCount++;
          return value;
       }
 
-      void ungetService()
+      synchronized void ungetService()
       {
-         if (useCount.get() == 0)
+         if (useCount == 0)
             return;
 
          // Call unget on the factory when done
-         if (useCount.decrementAndGet() == 0)
+         if (--useCount == 0)
          {
-            synchronized (bundleState)
+            evicted = true;
+            factoryValues.remove(bundleState.getBundleId(), this);
+            try
             {
                factory.ungetService(bundleState.getBundleWrapper(), getRegistration(), value);
+            }
+            finally
+            {
                value = null;
             }
          }
@@ -0,0 +1,119 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.bundle;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the service interfaces that a bundle revision has loaded for its service registrations, 
+ * together with the implementation classes that were found to be assignable to them.
+ *
+ * The cache belongs to the revision that loads the interfaces, so that it is discarded together
+ * with the revision when the bundle is updated or uninstalled. A refresh keeps the revision but 
+ * creates a new class loader, the revision clears the cache when it is refreshed. Only successful 
+ * checks are cached, an invalid registration is checked again and reported every time. 
+ *
+ * @since 18-Oct-2026
+ */
+final class ServiceTypeCache
+{
+   // The max number of cached entries per map, a map is cleared when it is full
+   static final int MAX_ENTRIES = 1024;
+
+   // The loaded service interfaces by class name
+   private final Map<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+   // The implementation classes and the interface names they are assignable to
+   private final Map<Key, Boolean> assignables = new ConcurrentHashMap<Key, Boolean>();
+
+   /**
+    * Load the service interface through the given revision, unless it is cached already
+    */
+   Class<?> loadClass(AbstractRevision revision, String className) throws ClassNotFoundException
+   {
+      Class<?> clazz = classes.get(className);
+      if (clazz == null)
+      {
+         clazz = revision.loadClass(className);
+         if (classes.size() >= MAX_ENTRIES)
+            classes.clear();
+
+         classes.put(className, clazz);
+      }
+      return clazz;
+   }
+
+   /**
+    * True if the implementation class was found to be assignable to all of the given interfaces before
+    */
+   boolean isAssignable(Class<?> implClass, String[] classNames)
+   {
+      return assignables.containsKey(new Key(implClass, classNames));
+   }
+
+   void putAssignable(Class<?> implClass, String[] classNames)
+   {
+      if (assignables.size() >= MAX_ENTRIES)
+         assignables.clear();
+
+      assignables.put(new Key(implClass, classNames.clone()), Boolean.TRUE);
+   }
+
+   /**
+    * Drop the cached classes, they were loaded by a class loader that is no longer used
+    */
+   void clear()
+   {
+      classes.clear();
+      assignables.clear();
+   }
+
+   private static final class Key
+   {
+      private final Class<?> implClass;
+      private final String[] classNames;
+      private final int hashCode;
+
+      Key(Class<?> implClass, String[] classNames)
+      {
+         this.implClass = implClass;
+         this.classNames = classNames;
+         this.hashCode = 31 * implClass.hashCode() + Arrays.hashCode(classNames);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hashCode;
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (obj instanceof Key == false)
+            return false;
+         Key other = (Key)obj;
+         return implClass == other.implClass && Arrays.equals(classNames, other.classNames);
+      }
+   }
+}
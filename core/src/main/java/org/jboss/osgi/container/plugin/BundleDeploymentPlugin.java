@@ -21,6 +21,8 @@
  */
 package org.jboss.osgi.container.plugin;
 
+import java.util.jar.Manifest;
+
 import org.jboss.osgi.deployment.deployer.Deployment;
 import org.jboss.osgi.metadata.OSGiMetaData;
 import org.jboss.osgi.vfs.VirtualFile;
@@ -42,6 +44,16 @@ public interface BundleDeploymentPlugin extends Plugin
     */
    Deployment createDeployment(VirtualFile rootFile, String location) throws BundleException;
 
+   /**
+    * Create a {@link Deployment} with its {@link OSGiMetaData} from a manifest that is already known.
+    * The manifest is not read from the root file. 
+    * @param The root file pointing to the bundle content
+    * @param The bundle location to be associated with the deployment  
+    * @param The bundle manifest
+    * @throws BundleException If the manifest does not define a valid bundle 
+    */
+   Deployment createDeployment(VirtualFile rootFile, String location, Manifest manifest) throws BundleException;
+
    /**
     * Creates {@link OSGiMetaData} from the deployment.
     * @return The OSGiMetaData
@@ -26,7 +26,10 @@ package org.jboss.osgi.container.plugin;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
+import org.jboss.osgi.container.bundle.BundleCacheEntry;
+import org.jboss.osgi.vfs.VirtualFile;
 import org.osgi.framework.Bundle;
 
 /**
@@ -43,7 +46,56 @@ public interface BundleStoragePlugin extends Plugin
    
    File getDataFile(Bundle bundle, String filename);
    
+   /**
+    * Store the bundle content from the given stream. 
+    * Content that is already stored under the same digest is shared, not copied again.
+    * @return The stream file that is unique to this install
+    */
    File storeBundleStream(String location, InputStream input, int revisionCount) throws IOException;
 
+   /**
+    * Delete a stream file that was returned by {@link #storeBundleStream(String, InputStream, int)}.
+    * The shared content is deleted with its last stream file.
+    */
+   void deleteBundleStream(File file);
+
    void cleanStorage(String propValue);
+
+   /**
+    * Get the directory that holds the stored content of the bundle cache
+    */
+   File getBundleCacheDir();
+
+   /**
+    * Store the content of a bundle revision in the bundle cache, unless it is already stored. 
+    * A stored bundle stream is linked where the platform supports it, other content is copied.
+    * @param contentName The file name of the content in the bundle cache directory
+    * @param rootFile The content root of the bundle revision
+    * @return The stored content file
+    */
+   File storeBundleCacheContent(String contentName, VirtualFile rootFile) throws IOException;
+
+   /**
+    * Write or replace the bundle cache entry of a single bundle. 
+    * The entry does not carry a manifest snapshot, the headers are snapshot by {@link #storeBundleCache(List)}.
+    */
+   void storeBundleCacheEntry(BundleCacheEntry entry) throws IOException;
+
+   /**
+    * Remove the bundle cache entry of an uninstalled bundle
+    */
+   void removeBundleCacheEntry(long bundleId);
+
+   /**
+    * Write the given entries and the snapshot of their headers. 
+    * Entries and stored content that are not referenced by the given entries are deleted.
+    */
+   void storeBundleCache(List<BundleCacheEntry> entries) throws IOException;
+
+   /**
+    * Read the bundle cache entries. Entries that cannot be read or whose content is missing are skipped.
+    * An entry carries the snapshot headers if its stored content did not change since the snapshot was written.
+    * @return The entries in ascending bundle id order or an empty list if there is no bundle cache
+    */
+   List<BundleCacheEntry> loadBundleCache() throws IOException;
 }
\ No newline at end of file
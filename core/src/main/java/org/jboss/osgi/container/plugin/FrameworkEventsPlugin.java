@@ -68,4 +68,29 @@ public interface FrameworkEventsPlugin extends Plugin
    void fireFrameworkEvent(Bundle bundle, int type, Throwable throwable);
 
    void fireServiceEvent(Bundle bundle, int type, ServiceState service);
+
+   /**
+    * Get the number of asynchronous events that are waiting to be delivered
+    */
+   int getPendingEventCount();
+
+   /**
+    * Get the number of asynchronous events that were delivered
+    */
+   long getDeliveredEventCount();
+
+   /**
+    * Get the number of asynchronous events that were dropped because the queue was full
+    */
+   long getDroppedEventCount();
+
+   /**
+    * Get the average time in nanoseconds between firing and completed delivery of an asynchronous event
+    */
+   long getAverageDeliveryLatency();
+
+   /**
+    * Get the max time in nanoseconds between firing and completed delivery of an asynchronous event
+    */
+   long getMaxDeliveryLatency();
 }
\ No newline at end of file
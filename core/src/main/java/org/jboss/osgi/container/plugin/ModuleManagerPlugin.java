@@ -79,4 +79,23 @@ public interface ModuleManagerPlugin extends Plugin
     * @return The module or null
     */
    Module removeModule(ModuleIdentifier identifier);
+
+   /**
+    * Get the cached result of a class space consistency check, i.e. whether the requesting 
+    * module loads the same class for the given name as the owning module.
+    * @return The cached result or null
+    */
+   Boolean getClassSpaceConsistency(ModuleIdentifier requester, ModuleIdentifier owner, String className);
+
+   /**
+    * Get the generation of the class space consistency cache, which changes whenever a module is removed
+    */
+   long getClassSpaceGeneration();
+
+   /**
+    * Cache the result of a class space consistency check until either module is removed.
+    * The result is not cached if a module was removed since the given generation.
+    * @param generation The generation that was current before the check was done
+    */
+   void putClassSpaceConsistency(ModuleIdentifier requester, ModuleIdentifier owner, String className, boolean consistent, long generation);
 }
\ No newline at end of file
@@ -26,8 +26,11 @@ import java.util.List;
 import java.util.Set;
 
 import org.jboss.msc.service.ServiceContainer;
+import org.jboss.msc.service.ServiceController;
 import org.jboss.osgi.container.bundle.AbstractBundle;
 import org.jboss.osgi.container.bundle.ServiceState;
+import org.jboss.osgi.container.spi.ServiceDescriptor;
+import org.jboss.osgi.container.util.ServiceMetrics;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
@@ -46,10 +49,31 @@ public interface ServiceManagerPlugin extends Plugin
    long getNextServiceId();
 
    /**
-    * Get the service container
+    * Get the service container. 
+    * The xservices that are installed through it are owned by the bundle that loaded the service value or the system bundle.
     */
    ServiceContainer getServiceContainer();
 
+   /**
+    * Get the service container of a bundle. 
+    * The xservices that are installed through it are owned by the given bundle.
+    */
+   ServiceContainer getServiceContainer(AbstractBundle bundleState);
+
+   /**
+    * Get the registered service hooks of the given type, i.e. {@link org.osgi.framework.hooks.service.FindHook}, 
+    * {@link org.osgi.framework.hooks.service.EventHook} or {@link org.osgi.framework.hooks.service.ListenerHook}.
+    * 
+    * @return The hooks in reverse compareTo ordering of their references, i.e. the highest ranking hook first.
+    */
+   <T> List<T> getServiceHooks(Class<T> hookClass);
+
+   /**
+    * Get the service registry metrics. 
+    * The metrics are only recorded if {@link ServiceMetrics#ENABLED} is true.
+    */
+   ServiceMetrics getServiceMetrics();
+
    /**
     * Registers the specified service object with the specified properties under the specified class names 
     * into the Framework. A <code>ServiceRegistration</code> object is returned. The <code>ServiceRegistration</code> 
@@ -64,6 +88,31 @@ public interface ServiceManagerPlugin extends Plugin
    @SuppressWarnings("rawtypes")
    ServiceState registerService(AbstractBundle bundleState, String[] clazzes, Object service, Dictionary properties);
 
+   /**
+    * Registers the described services in a single batch. The registry is updated once and the 
+    * <code>REGISTERED</code> events are fired afterwards in the order of the descriptors.
+    * 
+    * @param descriptors The services to register
+    * @return The registered services in the order of the descriptors 
+    * @throws IllegalStateException If the services cannot be installed, none of them is registered then
+    */
+   List<ServiceState> registerServices(AbstractBundle bundleState, List<ServiceDescriptor> descriptors);
+
+   /**
+    * Registers the value of an xservice controller that has started. The service is registered under the 
+    * interface name that is the simple name of the controller name, see {@link org.jboss.osgi.modules.ModuleContext#getServiceName(Class)}.
+    * The registration is stable until {@link #unregisterXService(ServiceController)} is called for the controller.
+    * 
+    * @param bundleState The bundle that installed the xservice
+    * @return The registered service or null if the controller is not an xservice
+    */
+   ServiceState registerXService(AbstractBundle bundleState, ServiceController<?> controller);
+
+   /**
+    * Unregisters the value of an xservice controller that is stopping or has been removed.
+    */
+   void unregisterXService(ServiceController<?> controller);
+
    /**
     * Returns a <code>ServiceReference</code> object for a service that
     * implements and was registered under the specified class.
@@ -133,6 +182,12 @@ public interface ServiceManagerPlugin extends Plugin
     */
    Set<ServiceState> getServicesInUse(AbstractBundle bundleState);
 
+   /**
+    * Modifies the properties of the given service and maintains the registry index accordingly.
+    */
+   @SuppressWarnings("rawtypes")
+   void updateServiceProperties(ServiceState serviceState, Dictionary properties);
+
    /**
     * Returns the bundles that are using the service.
     * @return A set of bundles or an empty set.
@@ -143,4 +198,10 @@ public interface ServiceManagerPlugin extends Plugin
     * Unregister the given service. 
     */
    void unregisterService(ServiceState reference);
+
+   /**
+    * Unregister all services that are registered by the given bundle.
+    * The services are removed from the registry one after the other, in the order they were registered. 
+    */
+   void unregisterServices(AbstractBundle bundleState);
 }
\ No newline at end of file
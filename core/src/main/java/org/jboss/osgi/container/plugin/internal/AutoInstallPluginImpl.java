@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.jboss.logging.Logger;
+import org.jboss.osgi.container.bundle.AbstractBundle;
 import org.jboss.osgi.container.bundle.BundleManager;
 import org.jboss.osgi.container.bundle.FrameworkState;
 import org.jboss.osgi.container.plugin.AbstractPlugin;
@@ -109,14 +110,13 @@ public class AutoInstallPluginImpl extends AbstractPlugin implements AutoInstall
          }
       }
 
-      // Install autoInstall bundles
+      // Install autoInstall bundles, the bundle content is read in parallel
       if (autoInstall != null)
       {
-         for (URL bundleURL : autoInstall)
+         List<AbstractBundle> bundles = getBundleManager().installBundles(autoInstall);
+         for (int i = 0; i < bundles.size(); i++)
          {
-
-            Bundle bundle = getBundleManager().installBundle(bundleURL);
-            registerBundle(bundleURL, bundle);
+            registerBundle(autoInstall.get(i), bundles.get(i));
          }
       }
    }
@@ -128,6 +128,33 @@ public class BundleDeploymentPluginImpl extends AbstractPlugin implements Bundle
       throw new BundleException("Cannot process as OSGi deployment: " + location);
    }
 
+   @Override
+   public Deployment createDeployment(VirtualFile rootFile, String location, Manifest manifest) throws BundleException
+   {
+      if (rootFile == null)
+         throw new IllegalArgumentException("Null rootFile");
+      if (manifest == null)
+         throw new IllegalArgumentException("Null manifest");
+
+      try
+      {
+         OSGiMetaData metadata = new OSGiManifestMetaData(manifest);
+         String symbolicName = metadata.getBundleSymbolicName();
+         if (symbolicName == null)
+            throw new BundleException("Missing Bundle-SymbolicName in: " + location);
+
+         Version version = metadata.getBundleVersion();
+         Deployment dep = DeploymentFactory.createDeployment(rootFile, location, symbolicName, version);
+         dep.addAttachment(Manifest.class, manifest);
+         dep.addAttachment(OSGiMetaData.class, metadata);
+         return dep;
+      }
+      catch (RuntimeException ex)
+      {
+         throw new BundleException("Invalid OSGi manifest in: " + location, ex);
+      }
+   }
+
    @Override
    public OSGiMetaData createOSGiMetaData(Deployment dep) throws BundleException
    {
@@ -24,17 +24,37 @@ package org.jboss.osgi.container.plugin.internal;
 //$Id$
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.logging.Logger;
+import org.jboss.osgi.container.bundle.BundleCacheEntry;
 import org.jboss.osgi.container.bundle.BundleManager;
 import org.jboss.osgi.container.bundle.FrameworkState;
 import org.jboss.osgi.container.plugin.AbstractPlugin;
 import org.jboss.osgi.container.plugin.BundleStoragePlugin;
 import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.osgi.vfs.VirtualFile;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 
@@ -49,8 +69,25 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
    // Provide logging
    final Logger log = Logger.getLogger(BundleStoragePluginImpl.class);
 
+   // The file name suffix of the bundle cache entries
+   static final String BUNDLE_CACHE_ENTRY_SUFFIX = ".properties";
+   // The name of the manifest snapshot file
+   static final String BUNDLE_CACHE_SNAPSHOT = "manifest.snapshot";
+
+   // The buffer size used to hash and copy bundle streams
+   private static final int BUFFER_SIZE = 64 * 1024;
+
    private String storageArea;
    private File bundleStreamDir;
+   private File bundleCacheDir;
+
+   // The number of references to a blob by its digest
+   private final Map<String, Integer> blobReferences = new HashMap<String, Integer>();
+   // The blob digest of a stream file by its path
+   private final Map<String, String> streamBlobs = new HashMap<String, String>();
+   private final AtomicInteger streamCount = new AtomicInteger();
+   // Serializes the writers of the bundle cache
+   private final Object cacheLock = new Object();
 
    public BundleStoragePluginImpl(BundleManager bundleManager)
    {
@@ -134,34 +171,227 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
       File streamdir = getBundleStreamDir();
       streamdir.mkdirs();
 
-      File file = new File(streamdir + File.separator + filename + ".jar");
-      if (file.exists() && revisionCount > 0)
-         throw new IllegalStateException("File already exists: " + file);
-      
-      int dupCount = 0;
-      while (file.exists())
+      // The stream file of every install is unique, its content is shared by digest
+      File file = new File(streamdir + File.separator + filename + "-" + streamCount.incrementAndGet() + ".jar");
+      log.debug("Store bundle stream: " + file);
+      storeContent(input, file);
+      return file;
+   }
+
+   /**
+    * Store the content in the blob of its digest and reference it from the given stream file. 
+    * The content is copied once per digest, the stream file is a hard link to the blob where the platform supports it.
+    */
+   private void storeContent(InputStream input, File file) throws IOException
+   {
+      File blobdir = getBundleBlobDir();
+      blobdir.mkdirs();
+
+      MessageDigest digest = newDigest();
+      File tmpFile = File.createTempFile("blob", ".tmp", blobdir);
+      try
+      {
+         if (input instanceof FileInputStream)
+         {
+            // Hash the source file, the content is only transferred if its blob does not exist
+            FileChannel source = ((FileInputStream)input).getChannel();
+            long position = source.position();
+            updateDigest(digest, source);
+            String hash = toHex(digest.digest());
+            boolean copied = false;
+            if (getBlobFile(hash).exists() == false)
+            {
+               transferContent(source, position, tmpFile);
+               copied = true;
+            }
+            synchronized (blobReferences)
+            {
+               // The blob may have been deleted since it was checked
+               if (copied == false && getBlobFile(hash).exists() == false)
+                  transferContent(source, position, tmpFile);
+
+               addReference(hash, tmpFile, file);
+            }
+         }
+         else
+         {
+            // Hash while streaming to the temp file
+            ReadableByteChannel source = Channels.newChannel(input);
+            FileChannel target = new FileOutputStream(tmpFile).getChannel();
+            try
+            {
+               ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+               while (source.read(buffer) >= 0)
+               {
+                  buffer.flip();
+                  digest.update(buffer.duplicate());
+                  while (buffer.hasRemaining())
+                     target.write(buffer);
+                  buffer.clear();
+               }
+            }
+            finally
+            {
+               target.close();
+            }
+            addReference(toHex(digest.digest()), tmpFile, file);
+         }
+      }
+      finally
       {
-         filename += "-dup" + (++dupCount);
-         file = new File(streamdir + File.separator + filename + ".jar");
+         tmpFile.delete();
       }
+   }
 
-      FileOutputStream fos = new FileOutputStream(file);
+   // Copy the source content from the given position to the target file
+   private static void transferContent(FileChannel source, long position, File target) throws IOException
+   {
+      source.position(position);
+      FileChannel out = new FileOutputStream(target).getChannel();
       try
       {
-         log.debug("Store bundle stream: " + file);
-         VFSUtils.copyStream(input, fos);
+         long size = source.size() - position;
+         long count = 0;
+         while (count < size)
+            count += out.transferFrom(source, count, size - count);
+      }
+      finally
+      {
+         out.close();
       }
-      catch(IOException ex)
+   }
+
+   private void addReference(String hash, File tmpFile, File file) throws IOException
+   {
+      synchronized (blobReferences)
       {
+         File blobFile = getBlobFile(hash);
+         if (blobFile.exists() == false && tmpFile.renameTo(blobFile) == false)
+            throw new IOException("Cannot store bundle content: " + blobFile);
+
          file.delete();
-         throw ex;
+         if (createLink(file, blobFile) == false)
+            copyFile(blobFile, file);
+
+         Integer count = blobReferences.get(hash);
+         blobReferences.put(hash, count != null ? count + 1 : 1);
+         streamBlobs.put(file.getAbsolutePath(), hash);
       }
-      finally
+   }
+
+   @Override
+   public void deleteBundleStream(File file)
+   {
+      if (file == null)
+         throw new IllegalArgumentException("Null file");
+
+      synchronized (blobReferences)
       {
-         fos.close();
+         file.delete();
+         String hash = streamBlobs.remove(file.getAbsolutePath());
+         if (hash != null)
+         {
+            int count = blobReferences.get(hash) - 1;
+            if (count > 0)
+            {
+               blobReferences.put(hash, count);
+            }
+            else
+            {
+               blobReferences.remove(hash);
+               getBlobFile(hash).delete();
+            }
+         }
       }
+   }
 
-      return file;
+   private File getBundleBlobDir()
+   {
+      return new File(getBundleStreamDir().getParentFile(), "bundle-blobs");
+   }
+
+   private File getBlobFile(String hash)
+   {
+      return new File(getBundleBlobDir(), hash + ".jar");
+   }
+
+   private static MessageDigest newDigest()
+   {
+      try
+      {
+         return MessageDigest.getInstance("SHA-1");
+      }
+      catch (NoSuchAlgorithmException ex)
+      {
+         throw new IllegalStateException("Cannot obtain SHA-1 digest", ex);
+      }
+   }
+
+   private static void updateDigest(MessageDigest digest, FileChannel channel) throws IOException
+   {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      while (channel.read(buffer) >= 0)
+      {
+         buffer.flip();
+         digest.update(buffer);
+         buffer.clear();
+      }
+   }
+
+   private static String toHex(byte[] bytes)
+   {
+      StringBuilder builder = new StringBuilder(bytes.length * 2);
+      for (byte b : bytes)
+      {
+         builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+         builder.append(Character.forDigit(b & 0xF, 16));
+      }
+      return builder.toString();
+   }
+
+   /**
+    * Create a hard link to the existing file.
+    * @return false if the file system does not support hard links
+    */
+   private static boolean createLink(File link, File existing)
+   {
+      try
+      {
+         Files.createLink(link.toPath(), existing.toPath());
+         return true;
+      }
+      catch (UnsupportedOperationException ex)
+      {
+         return false;
+      }
+      catch (IOException ex)
+      {
+         return false;
+      }
+   }
+
+   private static void copyFile(File source, File target) throws IOException
+   {
+      FileChannel in = new FileInputStream(source).getChannel();
+      try
+      {
+         FileChannel out = new FileOutputStream(target).getChannel();
+         try
+         {
+            long size = in.size();
+            long count = 0;
+            while (count < size)
+               count += in.transferTo(count, size - count, out);
+         }
+         finally
+         {
+            out.close();
+         }
+      }
+      finally
+      {
+         in.close();
+      }
    }
 
    @Override
@@ -200,10 +430,16 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
          }
       }
 
-      // Always delete the bundle stream dir
+      // Always delete the bundle stream dir and the blobs it references
       try
       {
-         deleteRecursively(getBundleStreamDir());
+         synchronized (blobReferences)
+         {
+            deleteRecursively(getBundleStreamDir());
+            deleteRecursively(getBundleBlobDir());
+            blobReferences.clear();
+            streamBlobs.clear();
+         }
       }
       catch (IOException ex)
       {
@@ -211,6 +447,263 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
       }
    }
 
+   @Override
+   public File getBundleCacheDir()
+   {
+      if (bundleCacheDir == null)
+         bundleCacheDir = new File(getStorageArea() + File.separator + "bundle-cache");
+
+      return bundleCacheDir;
+   }
+
+   @Override
+   public File storeBundleCacheContent(String contentName, VirtualFile rootFile) throws IOException
+   {
+      if (contentName == null)
+         throw new IllegalArgumentException("Null contentName");
+      if (rootFile == null)
+         throw new IllegalArgumentException("Null rootFile");
+
+      File cacheDir = getBundleCacheDir();
+      cacheDir.mkdirs();
+
+      // The content of a revision does not change
+      File contentFile = new File(cacheDir, contentName);
+      if (contentFile.exists())
+         return contentFile;
+
+      File tmpFile = File.createTempFile("content", ".tmp", cacheDir);
+      try
+      {
+         File sourceFile = new File(rootFile.getPathName());
+         if (sourceFile.isFile())
+         {
+            // A stored bundle stream is never modified and can be shared, other files are copied
+            boolean streamFile = sourceFile.getAbsolutePath().startsWith(getBundleStreamDir().getAbsolutePath());
+            tmpFile.delete();
+            if (streamFile == false || createLink(tmpFile, sourceFile) == false)
+               copyFile(sourceFile, tmpFile);
+         }
+         else
+         {
+            InputStream input = rootFile.openStream();
+            try
+            {
+               FileOutputStream fos = new FileOutputStream(tmpFile);
+               try
+               {
+                  VFSUtils.copyStream(input, fos);
+               }
+               finally
+               {
+                  fos.close();
+               }
+            }
+            finally
+            {
+               input.close();
+            }
+         }
+
+         if (tmpFile.renameTo(contentFile) == false && contentFile.exists() == false)
+            throw new IOException("Cannot store bundle content: " + contentFile);
+      }
+      finally
+      {
+         tmpFile.delete();
+      }
+      return contentFile;
+   }
+
+   @Override
+   public void storeBundleCacheEntry(BundleCacheEntry entry) throws IOException
+   {
+      if (entry == null)
+         throw new IllegalArgumentException("Null entry");
+
+      synchronized (cacheLock)
+      {
+         File cacheDir = getBundleCacheDir();
+         cacheDir.mkdirs();
+         writeEntry(cacheDir, entry);
+      }
+   }
+
+   @Override
+   public void removeBundleCacheEntry(long bundleId)
+   {
+      synchronized (cacheLock)
+      {
+         // The content is deleted with the next full write of the bundle cache, it may still be in use
+         new File(getBundleCacheDir(), getEntryName(bundleId)).delete();
+      }
+   }
+
+   @Override
+   public void storeBundleCache(List<BundleCacheEntry> entries) throws IOException
+   {
+      if (entries == null)
+         throw new IllegalArgumentException("Null entries");
+
+      synchronized (cacheLock)
+      {
+         File cacheDir = getBundleCacheDir();
+         cacheDir.mkdirs();
+
+         Set<String> fileNames = new HashSet<String>();
+         fileNames.add(BUNDLE_CACHE_SNAPSHOT);
+         for (BundleCacheEntry entry : entries)
+         {
+            writeEntry(cacheDir, entry);
+            fileNames.add(getEntryName(entry.getBundleId()));
+            fileNames.add(entry.getContentName());
+         }
+
+         // Write the manifest snapshot, a stale snapshot must not survive a failed write
+         File snapshotFile = new File(cacheDir, BUNDLE_CACHE_SNAPSHOT);
+         File snapshotTmp = new File(cacheDir, BUNDLE_CACHE_SNAPSHOT + ".tmp");
+         try
+         {
+            ManifestSnapshot.write(snapshotTmp, cacheDir, entries);
+            snapshotFile.delete();
+            if (snapshotTmp.renameTo(snapshotFile) == false)
+               throw new IOException("Cannot rename " + snapshotTmp);
+         }
+         catch (IOException ex)
+         {
+            log.warn("Cannot write manifest snapshot: " + snapshotFile, ex);
+            snapshotTmp.delete();
+            snapshotFile.delete();
+         }
+
+         // Delete the entries and the content that are no longer referenced
+         String[] names = cacheDir.list();
+         if (names != null)
+         {
+            for (String name : names)
+            {
+               if (fileNames.contains(name) == false)
+                  deleteRecursively(new File(cacheDir, name));
+            }
+         }
+      }
+      log.debug("Stored bundle cache with " + entries.size() + " bundles");
+   }
+
+   // Replace the entry file in one step, so that a crash does not leave a partial entry behind
+   private void writeEntry(File cacheDir, BundleCacheEntry entry) throws IOException
+   {
+      Properties props = new Properties();
+      props.setProperty("location", entry.getLocation());
+      props.setProperty("revision", String.valueOf(entry.getRevision()));
+      props.setProperty("startlevel", String.valueOf(entry.getStartLevel()));
+      props.setProperty("started", String.valueOf(entry.isPersistentlyStarted()));
+      props.setProperty("content", entry.getContentName());
+
+      String entryName = getEntryName(entry.getBundleId());
+      File tmpFile = new File(cacheDir, entryName + ".tmp");
+      FileOutputStream fos = new FileOutputStream(tmpFile);
+      try
+      {
+         props.store(fos, "JBossOSGi bundle cache");
+      }
+      finally
+      {
+         fos.close();
+      }
+      File entryFile = new File(cacheDir, entryName);
+      if (tmpFile.renameTo(entryFile) == false)
+      {
+         entryFile.delete();
+         if (tmpFile.renameTo(entryFile) == false)
+            throw new IOException("Cannot write bundle cache entry: " + entryFile);
+      }
+   }
+
+   private static String getEntryName(long bundleId)
+   {
+      return "bundle-" + bundleId + BUNDLE_CACHE_ENTRY_SUFFIX;
+   }
+
+   @Override
+   public List<BundleCacheEntry> loadBundleCache() throws IOException
+   {
+      File cacheDir = getBundleCacheDir();
+      String[] names = cacheDir.list();
+      if (names == null)
+         return Collections.emptyList();
+
+      ManifestSnapshot snapshot = null;
+      File snapshotFile = new File(cacheDir, BUNDLE_CACHE_SNAPSHOT);
+      if (snapshotFile.exists())
+      {
+         try
+         {
+            snapshot = ManifestSnapshot.read(snapshotFile);
+         }
+         catch (IOException ex)
+         {
+            log.warn("Cannot read manifest snapshot: " + snapshotFile, ex);
+         }
+      }
+
+      List<BundleCacheEntry> entries = new ArrayList<BundleCacheEntry>();
+      for (String name : names)
+      {
+         if (name.startsWith("bundle-") == false || name.endsWith(BUNDLE_CACHE_ENTRY_SUFFIX) == false)
+            continue;
+
+         File entryFile = new File(cacheDir, name);
+         try
+         {
+            Properties props = new Properties();
+            FileInputStream fis = new FileInputStream(entryFile);
+            try
+            {
+               props.load(fis);
+            }
+            finally
+            {
+               fis.close();
+            }
+
+            String id = name.substring("bundle-".length(), name.length() - BUNDLE_CACHE_ENTRY_SUFFIX.length());
+            long bundleId = Long.parseLong(id);
+            String location = props.getProperty("location");
+            int revision = Integer.parseInt(props.getProperty("revision"));
+            int startLevel = Integer.parseInt(props.getProperty("startlevel"));
+            boolean started = Boolean.parseBoolean(props.getProperty("started"));
+            String contentName = props.getProperty("content");
+            if (contentName == null || new File(cacheDir, contentName).exists() == false)
+               throw new IOException("Missing bundle content: " + contentName);
+
+            Map<String, String> headers = null;
+            if (snapshot != null)
+               headers = snapshot.getHeaders(new File(cacheDir, contentName));
+            entries.add(new BundleCacheEntry(bundleId, location, revision, startLevel, started, contentName, headers));
+         }
+         catch (IOException ex)
+         {
+            log.warn("Invalid bundle cache entry: " + entryFile, ex);
+         }
+         catch (RuntimeException ex)
+         {
+            log.warn("Invalid bundle cache entry: " + entryFile, ex);
+         }
+      }
+
+      Collections.sort(entries, new Comparator<BundleCacheEntry>()
+      {
+         public int compare(BundleCacheEntry e1, BundleCacheEntry e2)
+         {
+            long id1 = e1.getBundleId();
+            long id2 = e2.getBundleId();
+            return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+         }
+      });
+      return entries;
+   }
+
    private String getStorageArea()
    {
       if (storageArea == null)
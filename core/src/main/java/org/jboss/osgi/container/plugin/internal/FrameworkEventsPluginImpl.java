@@ -26,11 +26,9 @@ package org.jboss.osgi.container.plugin.internal;
 import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -38,26 +36,30 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import org.jboss.logging.Logger;
 import org.jboss.osgi.container.bundle.AbstractBundle;
 import org.jboss.osgi.container.bundle.BundleManager;
-import org.jboss.osgi.container.bundle.ServiceReferenceWrapper;
+import org.jboss.osgi.container.bundle.FrameworkState;
 import org.jboss.osgi.container.bundle.ServiceState;
 import org.jboss.osgi.container.plugin.AbstractPlugin;
 import org.jboss.osgi.container.plugin.FrameworkEventsPlugin;
+import org.jboss.osgi.container.plugin.ServiceManagerPlugin;
+import org.jboss.osgi.container.plugin.internal.ListenerDeliveryExecutor.OverflowPolicy;
+import org.jboss.osgi.container.util.CompiledFilter;
+import org.jboss.osgi.container.util.ExecutorFactory;
 import org.jboss.osgi.container.util.NoFilter;
 import org.jboss.osgi.container.util.RemoveOnlyCollection;
+import org.jboss.osgi.container.util.ServiceMetrics;
 import org.jboss.osgi.spi.util.ConstantsHelper;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkEvent;
 import org.osgi.framework.FrameworkListener;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
@@ -85,11 +87,29 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
    private final Map<Bundle, List<BundleListener>> bundleListeners = new ConcurrentHashMap<Bundle, List<BundleListener>>();
    /** The framework listeners */
    private final Map<Bundle, List<FrameworkListener>> frameworkListeners = new ConcurrentHashMap<Bundle, List<FrameworkListener>>();
+   /** The immutable snapshot of all bundle listeners, which is replaced on add/remove */
+   private volatile List<BundleListener> bundleListenerSnapshot = Collections.emptyList();
+   /** The immutable snapshot of all framework listeners, which is replaced on add/remove */
+   private volatile List<FrameworkListener> frameworkListenerSnapshot = Collections.emptyList();
    /** The service listeners */
    private final Map<Bundle, List<ServiceListenerRegistration>> serviceListeners = new ConcurrentHashMap<Bundle, List<ServiceListenerRegistration>>();
-
-   /** The executor service */
-   private ExecutorService executorService;
+   /** The index of service listeners by the objectClass their filter requires */
+   private final ServiceListenerIndex serviceListenerIndex = new ServiceListenerIndex();
+
+   /** The framework property for the number of event delivery threads */
+   static final String PROP_DELIVERY_POOL_SIZE = "org.jboss.osgi.event.delivery.poolsize";
+   /** The framework property for the max number of pending asynchronous events */
+   static final String PROP_DELIVERY_QUEUE_DEPTH = "org.jboss.osgi.event.delivery.queuedepth";
+   /** The framework property for the overflow policy: block, drop or caller-runs */
+   static final String PROP_DELIVERY_OVERFLOW = "org.jboss.osgi.event.delivery.overflow";
+
+   /** The default max number of pending asynchronous events */
+   static final int DEFAULT_DELIVERY_QUEUE_DEPTH = 10000;
+
+   /** The service manager, which provides the cached service hooks */
+   private ServiceManagerPlugin serviceManager;
+   /** The asynchronous event delivery, which is created on demand */
+   private ListenerDeliveryExecutor deliveryExecutor;
    /** True for synchronous event delivery */
    private boolean synchronous;
    /** The set of bundle events that are delivered to an (asynchronous) BundleListener */
@@ -100,7 +120,6 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
    public FrameworkEventsPluginImpl(BundleManager bundleManager)
    {
       super(bundleManager);
-      executorService = Executors.newCachedThreadPool();
       asyncBundleEvents.add(new Integer(BundleEvent.INSTALLED));
       asyncBundleEvents.add(new Integer(BundleEvent.RESOLVED));
       asyncBundleEvents.add(new Integer(BundleEvent.STARTED));
@@ -120,6 +139,51 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       this.synchronous = synchronous;
    }
 
+   @Override
+   public int getPendingEventCount()
+   {
+      ListenerDeliveryExecutor executor = deliveryExecutor;
+      return executor != null ? executor.getPendingCount() : 0;
+   }
+
+   @Override
+   public long getDeliveredEventCount()
+   {
+      ListenerDeliveryExecutor executor = deliveryExecutor;
+      return executor != null ? executor.getDeliveredCount() : 0;
+   }
+
+   @Override
+   public long getDroppedEventCount()
+   {
+      ListenerDeliveryExecutor executor = deliveryExecutor;
+      return executor != null ? executor.getDroppedCount() : 0;
+   }
+
+   @Override
+   public long getAverageDeliveryLatency()
+   {
+      ListenerDeliveryExecutor executor = deliveryExecutor;
+      return executor != null ? executor.getAverageLatency() : 0;
+   }
+
+   @Override
+   public long getMaxDeliveryLatency()
+   {
+      ListenerDeliveryExecutor executor = deliveryExecutor;
+      return executor != null ? executor.getMaxLatency() : 0;
+   }
+
+   @Override
+   public synchronized void destroyPlugin()
+   {
+      if (deliveryExecutor != null)
+      {
+         deliveryExecutor.shutdown();
+         deliveryExecutor = null;
+      }
+   }
+
    @Override
    public boolean isActive()
    {
@@ -150,6 +214,8 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          }
          if (listeners.contains(listener) == false)
             listeners.add(listener);
+
+         bundleListenerSnapshot = createSnapshot(bundleListeners);
       }
    }
 
@@ -167,9 +233,14 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          if (listeners != null)
          {
             if (listeners.size() > 1)
+            {
                listeners.remove(listener);
+               bundleListenerSnapshot = createSnapshot(bundleListeners);
+            }
             else
+            {
                removeBundleListeners(bundle);
+            }
          }
       }
    }
@@ -181,6 +252,7 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       {
          bundle = assertBundle(bundle);
          bundleListeners.remove(bundle);
+         bundleListenerSnapshot = createSnapshot(bundleListeners);
       }
    }
 
@@ -202,6 +274,8 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          }
          if (listeners.contains(listener) == false)
             listeners.add(listener);
+
+         frameworkListenerSnapshot = createSnapshot(frameworkListeners);
       }
    }
 
@@ -219,9 +293,14 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          if (listeners != null)
          {
             if (listeners.size() > 1)
+            {
                listeners.remove(listener);
+               frameworkListenerSnapshot = createSnapshot(frameworkListeners);
+            }
             else
+            {
                removeFrameworkListeners(bundle);
+            }
          }
       }
    }
@@ -233,9 +312,20 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       {
          bundle = assertBundle(bundle);
          frameworkListeners.remove(bundle);
+         frameworkListenerSnapshot = createSnapshot(frameworkListeners);
       }
    }
 
+   // Flatten the per bundle listeners into an immutable list. Must be called while holding the monitor of the map
+   private static <T> List<T> createSnapshot(Map<Bundle, List<T>> listenerMap)
+   {
+      List<T> result = new ArrayList<T>();
+      for (List<T> listeners : listenerMap.values())
+         result.addAll(listeners);
+
+      return Collections.unmodifiableList(result);
+   }
+
    @Override
    public void addServiceListener(Bundle bundle, ServiceListener listener, String filterstr) throws InvalidSyntaxException
    {
@@ -258,7 +348,7 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          removeServiceListener(bundle, listener);
 
          // Create the new listener registration
-         Filter filter = (filterstr != null ? FrameworkUtil.createFilter(filterstr) : NoFilter.INSTANCE);
+         Filter filter = (filterstr != null ? CompiledFilter.compile(filterstr) : NoFilter.INSTANCE);
          ServiceListenerRegistration slreg = new ServiceListenerRegistration(bundle, listener, filter);
 
          // The {@link ListenerHook} added method is called to provide the hook implementation with information on newly added service listeners. 
@@ -277,6 +367,7 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
 
          // Add the listener to the list
          listeners.add(slreg);
+         serviceListenerIndex.addListener(slreg);
       }
    }
 
@@ -316,6 +407,7 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
             if (index >= 0)
             {
                slreg = listeners.remove(index);
+               serviceListenerIndex.removeListener(slreg);
 
                // The {@link ListenerHook} 'removed' method is called to provide the hook implementation with information on newly removed service listeners. 
                // This method will be called as service listeners are removed while this hook is registered. 
@@ -343,7 +435,12 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       synchronized (serviceListeners)
       {
          Collection<ListenerInfo> listenerInfos = getServiceListenerInfos(bundle);
-         serviceListeners.remove(assertBundle(bundle));
+         List<ServiceListenerRegistration> listeners = serviceListeners.remove(assertBundle(bundle));
+         if (listeners != null)
+         {
+            for (ServiceListenerRegistration slreg : listeners)
+               serviceListenerIndex.removeListener(slreg);
+         }
 
          // The {@link ListenerHook} 'removed' method is called to provide the hook implementation with information on newly removed service listeners. 
          // This method will be called as service listeners are removed while this hook is registered. 
@@ -363,41 +460,22 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
 
    private List<ListenerHook> getServiceListenerHooks()
    {
-      BundleContext context = getBundleManager().getSystemContext();
-      ServiceReference[] srefs = null;
-      try
-      {
-         srefs = context.getServiceReferences(ListenerHook.class.getName(), null);
-      }
-      catch (InvalidSyntaxException e)
-      {
-         // ignore
-      }
-      if (srefs == null)
-         return Collections.emptyList();
+      return getServiceManager().getServiceHooks(ListenerHook.class);
+   }
 
-      List<ListenerHook> hooks = new ArrayList<ListenerHook>();
-      for (ServiceReference sref : srefs)
-         hooks.add((ListenerHook)context.getService(sref));
+   private ServiceManagerPlugin getServiceManager()
+   {
+      if (serviceManager == null)
+         serviceManager = getPlugin(ServiceManagerPlugin.class);
 
-      return Collections.unmodifiableList(hooks);
+      return serviceManager;
    }
 
    @Override
    public void fireBundleEvent(final Bundle bundle, final int type)
    {
       // Get a snapshot of the current listeners
-      final List<BundleListener> listeners = new ArrayList<BundleListener>();
-      synchronized (bundleListeners)
-      {
-         for (Entry<Bundle, List<BundleListener>> entry : bundleListeners.entrySet())
-         {
-            for (BundleListener listener : entry.getValue())
-            {
-               listeners.add(listener);
-            }
-         }
-      }
+      final List<BundleListener> listeners = bundleListenerSnapshot;
 
       // Expose the bundl wrapper not the state itself
       final BundleEvent event = new BundleEventImpl(type, assertBundle(bundle));
@@ -416,63 +494,53 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       if (getBundleManager().isFrameworkActive() == false)
          return;
 
-      Runnable runnable = new Runnable()
+      // Synchronous listeners are called on the thread that fires the event
+      for (BundleListener listener : listeners)
       {
-         public void run()
+         try
          {
-            // Synchronous listeners first
-            for (BundleListener listener : listeners)
-            {
-               try
-               {
-                  if (listener instanceof SynchronousBundleListener)
-                     listener.bundleChanged(event);
-               }
-               catch (Throwable t)
-               {
-                  log.warn("Error while firing " + typeName + " for bundle " + bundle, t);
-               }
-            }
+            if (listener instanceof SynchronousBundleListener)
+               listener.bundleChanged(event);
+         }
+         catch (Throwable t)
+         {
+            log.warn("Error while firing " + typeName + " for bundle " + bundle, t);
+         }
+      }
 
-            // BundleListeners are called with a BundleEvent object when a bundle has been 
-            // installed, resolved, started, stopped, updated, unresolved, or uninstalled
-            if (asyncBundleEvents.contains(type))
+      // BundleListeners are called with a BundleEvent object when a bundle has been 
+      // installed, resolved, started, stopped, updated, unresolved, or uninstalled
+      if (asyncBundleEvents.contains(type))
+      {
+         for (final BundleListener listener : listeners)
+         {
+            if (listener instanceof SynchronousBundleListener)
+               continue;
+
+            Runnable runnable = new Runnable()
             {
-               for (BundleListener listener : listeners)
+               public void run()
                {
                   try
                   {
-                     if (listener instanceof SynchronousBundleListener == false)
-                        listener.bundleChanged(event);
+                     listener.bundleChanged(event);
                   }
                   catch (Throwable t)
                   {
-                     log.warn("Error while firing " + typeName + " for bundle " + this, t);
+                     log.warn("Error while firing " + typeName + " for bundle " + bundle, t);
                   }
                }
-            }
+            };
+            fireEvent(listener, runnable);
          }
-      };
-
-      // Fire the event in a runnable
-      fireEvent(runnable, synchronous);
+      }
    }
 
    @Override
    public void fireFrameworkEvent(final Bundle bundle, final int type, final Throwable throwable)
    {
       // Get a snapshot of the current listeners
-      final ArrayList<FrameworkListener> listeners = new ArrayList<FrameworkListener>();
-      synchronized (frameworkListeners)
-      {
-         for (Entry<Bundle, List<FrameworkListener>> entry : frameworkListeners.entrySet())
-         {
-            for (FrameworkListener listener : entry.getValue())
-            {
-               listeners.add(listener);
-            }
-         }
-      }
+      final List<FrameworkListener> listeners = frameworkListenerSnapshot;
 
       // Nobody is interested
       if (listeners.isEmpty())
@@ -482,30 +550,26 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       if (getBundleManager().isFrameworkActive() == false)
          return;
 
-      Runnable runnable = new Runnable()
-      {
-         public void run()
-         {
-            // Expose the wrapper not the state itself
-            FrameworkEvent event = new FrameworkEventImpl(type, assertBundle(bundle), throwable);
-            String typeName = ConstantsHelper.frameworkEvent(event.getType());
-
-            if (infoEvents.contains(ConstantsHelper.frameworkEvent(event.getType())))
-               log.info("Framwork " + typeName);
-            else
-               log.debug("Framwork " + typeName);
-
-            // Nobody is interested
-            if (frameworkListeners.isEmpty())
-               return;
+      // Expose the wrapper not the state itself
+      final FrameworkEvent event = new FrameworkEventImpl(type, assertBundle(bundle), throwable);
+      final String typeName = ConstantsHelper.frameworkEvent(event.getType());
 
-            // Are we active?
-            if (getBundleManager().isFrameworkActive() == false)
-               return;
+      if (infoEvents.contains(ConstantsHelper.frameworkEvent(event.getType())))
+         log.info("Framwork " + typeName);
+      else
+         log.debug("Framwork " + typeName);
 
-            // Call the listeners
-            for (FrameworkListener listener : listeners)
+      // Call the listeners
+      for (final FrameworkListener listener : listeners)
+      {
+         Runnable runnable = new Runnable()
+         {
+            public void run()
             {
+               // Are we active?
+               if (getBundleManager().isFrameworkActive() == false)
+                  return;
+
                try
                {
                   listener.frameworkEvent(event);
@@ -527,57 +591,51 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
                   log.warn("Error while firing " + typeName + " for framework", t);
                }
             }
-         }
-      };
-
-      // Fire the event in a runnable
-      fireEvent(runnable, synchronous);
+         };
+         fireEvent(listener, runnable);
+      }
    }
 
    @Override
    public void fireServiceEvent(Bundle bundle, int type, final ServiceState serviceState)
    {
-      // Get a snapshot of the current listeners
-      List<ServiceListenerRegistration> listeners = new ArrayList<ServiceListenerRegistration>();
-      synchronized (serviceListeners)
-      {
-         for (Entry<Bundle, List<ServiceListenerRegistration>> entry : serviceListeners.entrySet())
-         {
-            for (ServiceListenerRegistration listener : entry.getValue())
-            {
-               BundleContext context = listener.getBundleContext();
-               if (context != null)
-                  listeners.add(listener);
-            }
-         }
-      }
+      // Get the listeners whose filter can match the service
+      List<ServiceListenerRegistration> listeners = serviceListenerIndex.getCandidates(serviceState);
 
-      // Expose the wrapper not the state itself
-      ServiceEvent event = new ServiceEventImpl(type, new ServiceReferenceWrapper(serviceState));
-      String typeName = ConstantsHelper.serviceEvent(event.getType());
+      if (ServiceMetrics.ENABLED)
+         getServiceManager().getServiceMetrics().serviceEvent(listeners.size());
 
-      if (infoEvents.contains(ConstantsHelper.serviceEvent(event.getType())))
-         log.info("Service " + typeName + ": " + serviceState);
-      else
-         log.debug("Service " + typeName + ": " + serviceState);
+      // Avoid building the log message, which contains all service properties
+      if (log.isDebugEnabled())
+         log.debug("Service " + ConstantsHelper.serviceEvent(type) + ": " + serviceState);
 
       // Do nothing if the Framework is not active
       if (getBundleManager().isFrameworkActive() == false)
          return;
 
-      // Call the registered event hooks
-      listeners = processEventHooks(listeners, event);
-
       // Nobody is interested
       if (listeners.isEmpty())
          return;
 
+      // Expose the canonical reference not the state itself
+      ServiceReference reference = serviceState.getReferenceInternal();
+      ServiceEvent event = new ServiceEventImpl(type, reference);
+
+      // Call the registered event hooks
+      List<EventHook> eventHooks = getEventHooks();
+      if (eventHooks.isEmpty() == false)
+         listeners = processEventHooks(eventHooks, listeners, event);
+
       // Call the listeners. All service events are synchronously delivered
+      ServiceEvent endmatchEvent = null;
       for (ServiceListenerRegistration listener : listeners)
       {
+         // The bundle of the listener is no longer valid
+         if (listener.getBundleContext() == null)
+            continue;
+
          try
          {
-            String filterstr = listener.filter.toString();
             if (listener.filter.match(serviceState))
             {
                listener.listener.serviceChanged(event);
@@ -587,23 +645,25 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
             // This event is only delivered to listeners which were added with a non-null filter where 
             // the filter matched the service properties prior to the modification but the filter does 
             // not match the modified service properties. 
-            else if (filterstr != null && ServiceEvent.MODIFIED == event.getType())
+            else if (ServiceEvent.MODIFIED == type)
             {
                if (listener.filter.match(serviceState.getPreviousProperties()))
                {
-                  event = new ServiceEventImpl(ServiceEvent.MODIFIED_ENDMATCH, new ServiceReferenceWrapper(serviceState));
-                  listener.listener.serviceChanged(event);
+                  if (endmatchEvent == null)
+                     endmatchEvent = new ServiceEventImpl(ServiceEvent.MODIFIED_ENDMATCH, reference);
+
+                  listener.listener.serviceChanged(endmatchEvent);
                }
             }
          }
          catch (Throwable t)
          {
-            log.warn("Error while firing " + typeName + " for service " + serviceState, t);
+            log.warn("Error while firing " + ConstantsHelper.serviceEvent(type) + " for service " + serviceState, t);
          }
       }
    }
 
-   private List<ServiceListenerRegistration> processEventHooks(List<ServiceListenerRegistration> listeners, final ServiceEvent event)
+   private List<ServiceListenerRegistration> processEventHooks(List<EventHook> eventHooks, List<ServiceListenerRegistration> listeners, final ServiceEvent event)
    {
       // Collect the BundleContexts
       Collection<BundleContext> contexts = new HashSet<BundleContext>();
@@ -616,9 +676,10 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       contexts = new RemoveOnlyCollection<BundleContext>(contexts);
 
       // Call the registered event hooks
-      List<EventHook> eventHooks = getEventHooks();
+      ServiceMetrics metrics = getServiceManager().getServiceMetrics();
       for (EventHook hook : eventHooks)
       {
+         long start = (ServiceMetrics.ENABLED ? System.nanoTime() : 0);
          try
          {
             hook.event(event, contexts);
@@ -627,46 +688,25 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          {
             log.warn("Error while calling EventHook: " + hook, ex);
          }
+         if (ServiceMetrics.ENABLED)
+            metrics.eventHook(System.nanoTime() - start);
       }
 
       // Remove the listeners that have been filtered by the EventHooks
-      if (contexts.size() != listeners.size())
+      List<ServiceListenerRegistration> result = new ArrayList<ServiceListenerRegistration>();
+      for (ServiceListenerRegistration slreg : listeners)
       {
-         Iterator<ServiceListenerRegistration> it = listeners.iterator();
-         while (it.hasNext())
-         {
-            ServiceListenerRegistration slreg = it.next();
-            if (contexts.contains(slreg.getBundleContext()) == false)
-               it.remove();
-         }
+         if (contexts.contains(slreg.getBundleContext()))
+            result.add(slreg);
       }
-      return listeners;
+      return result;
    }
 
    private List<EventHook> getEventHooks()
    {
-      List<EventHook> hooks = new ArrayList<EventHook>();
-      BundleContext context = getBundleManager().getSystemContext();
-      ServiceReference[] srefs = null;
-      try
-      {
-         srefs = context.getServiceReferences(EventHook.class.getName(), null);
-      }
-      catch (InvalidSyntaxException e)
-      {
-         // ignore
-      }
-      if (srefs != null)
-      {
-         // The calling order of the hooks is defined by the reversed compareTo ordering of their Service
-         // Reference objects. That is, the service with the highest ranking number is called first. 
-         List<ServiceReference> sortedRefs = new ArrayList<ServiceReference>(Arrays.asList(srefs));
-         Collections.reverse(sortedRefs);
-
-         for (ServiceReference sref : sortedRefs)
-            hooks.add((EventHook)context.getService(sref));
-      }
-      return hooks;
+      // The calling order of the hooks is defined by the reversed compareTo ordering of their Service
+      // Reference objects. That is, the service with the highest ranking number is called first. 
+      return getServiceManager().getServiceHooks(EventHook.class);
    }
 
    private static Bundle assertBundle(Bundle bundle)
@@ -681,7 +721,7 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       return bundle;
    }
 
-   private void fireEvent(Runnable runnable, boolean synchronous)
+   private void fireEvent(Object listener, Runnable runnable)
    {
       if (synchronous)
       {
@@ -689,10 +729,62 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       }
       else
       {
-         executorService.execute(runnable);
+         getDeliveryExecutor().deliver(listener, runnable);
       }
    }
 
+   private synchronized ListenerDeliveryExecutor getDeliveryExecutor()
+   {
+      if (deliveryExecutor == null)
+      {
+         FrameworkState frameworkState = getBundleManager().getFrameworkState();
+         int poolSize = getIntProperty(frameworkState, PROP_DELIVERY_POOL_SIZE, Math.max(2, Runtime.getRuntime().availableProcessors()));
+         int queueDepth = getIntProperty(frameworkState, PROP_DELIVERY_QUEUE_DEPTH, DEFAULT_DELIVERY_QUEUE_DEPTH);
+
+         OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+         String overflowProp = frameworkState.getProperty(PROP_DELIVERY_OVERFLOW);
+         if (overflowProp != null)
+         {
+            try
+            {
+               overflowPolicy = OverflowPolicy.parse(overflowProp);
+            }
+            catch (IllegalArgumentException ex)
+            {
+               log.error("Invalid value for " + PROP_DELIVERY_OVERFLOW + ": " + overflowProp);
+            }
+         }
+
+         // With virtual threads every listener queue is drained on its own thread
+         ExecutorFactory executorFactory = frameworkState.getExecutorFactory();
+         ExecutorService workers = executorFactory.newThreadPool("jbosgi-event-delivery", poolSize, true);
+
+         log.debug("Event delivery: poolSize=" + poolSize + ",queueDepth=" + queueDepth + ",overflow=" + overflowPolicy);
+         deliveryExecutor = new ListenerDeliveryExecutor(workers, queueDepth, overflowPolicy);
+      }
+      return deliveryExecutor;
+   }
+
+   private int getIntProperty(FrameworkState frameworkState, String key, int defaultValue)
+   {
+      String value = frameworkState.getProperty(key);
+      if (value == null)
+         return defaultValue;
+
+      try
+      {
+         int result = Integer.parseInt(value.trim());
+         if (result > 0)
+            return result;
+      }
+      catch (NumberFormatException ex)
+      {
+         // fall through
+      }
+      log.error("Invalid value for " + key + ": " + value);
+      return defaultValue;
+   }
+
    /**
     * Filter and AccessControl for service events
     */
@@ -702,6 +794,8 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       private ServiceListener listener;
       private Filter filter;
       private ListenerInfo info;
+      // The objectClasses required by the filter, null if the filter can match any service
+      private Set<String> objectClasses;
 
       // Any access control context
       AccessControlContext accessControlContext;
@@ -720,6 +814,9 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          this.filter = filter;
          this.info = new ListenerInfoImpl(this);
 
+         if (filter instanceof CompiledFilter)
+            objectClasses = ((CompiledFilter)filter).getRequiredValues(Constants.OBJECTCLASS);
+
          if (System.getSecurityManager() != null)
             accessControlContext = AccessController.getContext();
       }
@@ -734,6 +831,11 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          return info;
       }
 
+      public Set<String> getObjectClasses()
+      {
+         return objectClasses;
+      }
+
       @Override
       public int hashCode()
       {
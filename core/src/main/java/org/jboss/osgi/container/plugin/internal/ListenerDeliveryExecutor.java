@@ -0,0 +1,358 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.plugin.internal;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Delivers asynchronous events to listeners.
+ *
+ * Every listener has its own serial queue, so that a listener receives its events in the order they were fired.
+ * The queues are drained in batches by a bounded worker pool. The total number of pending events is bounded by
+ * the queue depth. When the bound is reached, the {@link OverflowPolicy} decides what happens to a new event.
+ *
+ * @since 18-Oct-2026
+ */
+public final class ListenerDeliveryExecutor
+{
+   // Provide logging
+   private final Logger log = Logger.getLogger(ListenerDeliveryExecutor.class);
+
+   // The max number of events that a worker delivers to a listener before it moves on to the next listener
+   static final int DRAIN_BATCH_SIZE = 64;
+
+   /**
+    * What to do with an event when the queue depth is reached
+    */
+   public enum OverflowPolicy
+   {
+      /** The firing thread waits until there is space in the queue */
+      BLOCK,
+      /** The event is dropped */
+      DROP,
+      /**
+       * The event is delivered on the firing thread. If events for the same listener are still pending,
+       * the firing thread waits until there is space in the queue and the event is queued after them instead,
+       * so that the listener still receives its events in order.
+       */
+      CALLER_RUNS;
+
+      public static OverflowPolicy parse(String value)
+      {
+         return valueOf(value.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+      }
+   }
+
+   // Marks the worker threads, which must never block on a full queue
+   private static final ThreadLocal<Boolean> deliveryThread = new ThreadLocal<Boolean>();
+
+   private final ExecutorService workers;
+   private final OverflowPolicy overflowPolicy;
+   private final Semaphore capacity;
+   private final ConcurrentMap<Object, ListenerQueue> queues = new ConcurrentHashMap<Object, ListenerQueue>();
+
+   // The metrics
+   private final AtomicLong deliveredCount = new AtomicLong();
+   private final AtomicLong droppedCount = new AtomicLong();
+   private final AtomicLong totalLatency = new AtomicLong();
+   private final AtomicLong maxLatency = new AtomicLong();
+
+   public ListenerDeliveryExecutor(ExecutorService workers, int queueDepth, OverflowPolicy overflowPolicy)
+   {
+      if (workers == null)
+         throw new IllegalArgumentException("Null workers");
+      if (queueDepth < 1)
+         throw new IllegalArgumentException("Invalid queue depth: " + queueDepth);
+      if (overflowPolicy == null)
+         throw new IllegalArgumentException("Null overflowPolicy");
+
+      this.workers = workers;
+      this.overflowPolicy = overflowPolicy;
+      this.capacity = new Semaphore(queueDepth);
+   }
+
+   /**
+    * Deliver the event to the given listener asynchronously.
+    * Events for the same listener are delivered in the order of this call.
+    */
+   public void deliver(Object listener, Runnable delivery)
+   {
+      if (listener == null)
+         throw new IllegalArgumentException("Null listener");
+      if (delivery == null)
+         throw new IllegalArgumentException("Null delivery");
+
+      boolean permit = capacity.tryAcquire();
+      if (permit == false)
+      {
+         switch (overflowPolicy)
+         {
+            case DROP:
+               droppedCount.incrementAndGet();
+               log.warn("Event queue full, dropping event for: " + listener);
+               return;
+
+            case CALLER_RUNS:
+               if (enqueue(listener, new Delivery(delivery, false), true))
+                  return;
+
+               // Events for the listener are pending, wait for space like the block policy
+               if (deliveryThread.get() == null)
+               {
+                  capacity.acquireUninterruptibly();
+                  permit = true;
+               }
+               break;
+
+            case BLOCK:
+               // A worker that fires an event must not wait for itself, it exceeds the queue depth instead
+               if (deliveryThread.get() == null)
+               {
+                  capacity.acquireUninterruptibly();
+                  permit = true;
+               }
+               break;
+         }
+      }
+
+      enqueue(listener, new Delivery(delivery, permit), false);
+   }
+
+   /**
+    * Get the number of events that are waiting to be delivered
+    */
+   public int getPendingCount()
+   {
+      int result = 0;
+      for (ListenerQueue queue : queues.values())
+         result += queue.size();
+
+      return result;
+   }
+
+   /**
+    * Get the number of events that were delivered
+    */
+   public long getDeliveredCount()
+   {
+      return deliveredCount.get();
+   }
+
+   /**
+    * Get the number of events that were dropped because the queue was full
+    */
+   public long getDroppedCount()
+   {
+      return droppedCount.get();
+   }
+
+   /**
+    * Get the average time in nanoseconds between firing and completed delivery of an event
+    */
+   public long getAverageLatency()
+   {
+      long count = deliveredCount.get();
+      return count > 0 ? totalLatency.get() / count : 0;
+   }
+
+   /**
+    * Get the max time in nanoseconds between firing and completed delivery of an event
+    */
+   public long getMaxLatency()
+   {
+      return maxLatency.get();
+   }
+
+   /**
+    * Shutdown the worker pool. Pending events are still delivered.
+    */
+   public void shutdown()
+   {
+      workers.shutdown();
+   }
+
+   /**
+    * Add the delivery to the listener's queue.
+    * @param callerRuns True if the calling thread drains the queue, which is only done when no worker is scheduled for it
+    * @return False if the calling thread should drain the queue, but a worker is already scheduled for it
+    */
+   private boolean enqueue(Object listener, Delivery delivery, boolean callerRuns)
+   {
+      while (true)
+      {
+         ListenerQueue queue = queues.get(listener);
+         if (queue == null)
+         {
+            ListenerQueue newQueue = new ListenerQueue(listener);
+            queue = queues.putIfAbsent(listener, newQueue);
+            if (queue == null)
+               queue = newQueue;
+         }
+
+         boolean schedule;
+         synchronized (queue)
+         {
+            // The queue was drained and removed concurrently
+            if (queue.retired)
+               continue;
+
+            // The delivery would be queued without a permit behind the pending events
+            if (callerRuns && queue.scheduled)
+               return false;
+
+            queue.deliveries.add(delivery);
+            schedule = (queue.scheduled == false);
+            queue.scheduled = true;
+         }
+
+         if (schedule && callerRuns)
+            queue.run();
+         else if (schedule)
+            schedule(queue);
+
+         return true;
+      }
+   }
+
+   private void schedule(ListenerQueue queue)
+   {
+      try
+      {
+         workers.execute(queue);
+      }
+      catch (RejectedExecutionException ex)
+      {
+         // The executor was shut down, deliver on the calling thread
+         queue.run();
+      }
+   }
+
+   private void runDelivery(Delivery delivery)
+   {
+      try
+      {
+         delivery.runnable.run();
+      }
+      catch (Throwable th)
+      {
+         log.warn("Error while delivering event", th);
+      }
+
+      long latency = System.nanoTime() - delivery.timestamp;
+      deliveredCount.incrementAndGet();
+      totalLatency.addAndGet(latency);
+
+      long max = maxLatency.get();
+      while (latency > max && maxLatency.compareAndSet(max, latency) == false)
+         max = maxLatency.get();
+   }
+
+   /**
+    * An event delivery with the time it was fired
+    */
+   private static final class Delivery
+   {
+      final Runnable runnable;
+      final long timestamp;
+      // True if the delivery holds a permit of the queue capacity
+      final boolean permit;
+
+      Delivery(Runnable runnable, boolean permit)
+      {
+         this.runnable = runnable;
+         this.timestamp = System.nanoTime();
+         this.permit = permit;
+      }
+   }
+
+   /**
+    * The serial queue of a single listener. At most one worker drains the queue at any time.
+    */
+   private final class ListenerQueue implements Runnable
+   {
+      private final Object listener;
+      private final Queue<Delivery> deliveries = new ArrayDeque<Delivery>();
+      // True while a worker is scheduled to drain this queue
+      private boolean scheduled;
+      // True when this queue was removed from the map
+      private boolean retired;
+
+      ListenerQueue(Object listener)
+      {
+         this.listener = listener;
+      }
+
+      synchronized int size()
+      {
+         return deliveries.size();
+      }
+
+      @Override
+      public void run()
+      {
+         // The queue may be drained by a firing thread that is a worker itself
+         Boolean wasDeliveryThread = deliveryThread.get();
+         deliveryThread.set(Boolean.TRUE);
+         try
+         {
+            for (int i = 0; i < DRAIN_BATCH_SIZE; i++)
+            {
+               Delivery delivery;
+               synchronized (this)
+               {
+                  delivery = deliveries.poll();
+                  if (delivery == null)
+                  {
+                     scheduled = false;
+                     retired = true;
+                     queues.remove(listener, this);
+                     return;
+                  }
+               }
+
+               if (delivery.permit)
+                  capacity.release();
+
+               runDelivery(delivery);
+            }
+         }
+         finally
+         {
+            if (wasDeliveryThread == null)
+               deliveryThread.remove();
+         }
+
+         // Give other listeners a chance and continue with the next batch later
+         schedule(this);
+      }
+   }
+}
@@ -0,0 +1,226 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.plugin.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.jboss.osgi.container.bundle.BundleCacheEntry;
+
+/**
+ * A compact binary snapshot of the manifest headers of the cached bundle content.
+ * 
+ * The snapshot file is read in one go and closed, so that it can be replaced or deleted while the
+ * snapshot is in use. Opening it only indexes the content names, the headers of an entry are decoded
+ * when they are asked for. An entry is stale when the length or the modification time of the cached
+ * content changed.
+ * 
+ * The snapshot saves opening the bundle content and reading its manifest. The header values are still
+ * parsed when the bundle metadata is created from them.
+ * 
+ * <pre>
+ * int magic, int version, int count
+ * count * { string contentName, long length, long lastModified, int headerCount, headerCount * { string name, string value } }
+ * </pre>
+ * 
+ * A string is written as its UTF-8 byte length followed by the bytes.
+ * 
+ * @since 18-Oct-2026
+ */
+final class ManifestSnapshot
+{
+   private static final int MAGIC = 0x4A424D53;
+   private static final int VERSION = 1;
+   private static final String UTF8 = "UTF-8";
+
+   private final ByteBuffer buffer;
+   private final Map<String, Integer> positions;
+
+   private ManifestSnapshot(ByteBuffer buffer, Map<String, Integer> positions)
+   {
+      this.buffer = buffer;
+      this.positions = positions;
+   }
+
+   /**
+    * Write the headers of the given entries. Entries without headers are not written.
+    * @param snapshotFile The snapshot file
+    * @param cacheDir The directory that contains the cached content
+    * @param entries The bundle cache entries
+    */
+   static void write(File snapshotFile, File cacheDir, List<BundleCacheEntry> entries) throws IOException
+   {
+      int count = 0;
+      for (BundleCacheEntry entry : entries)
+      {
+         if (entry.getHeaders() != null)
+            count++;
+      }
+
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshotFile)));
+      try
+      {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeInt(count);
+         for (BundleCacheEntry entry : entries)
+         {
+            Map<String, String> headers = entry.getHeaders();
+            if (headers == null)
+               continue;
+
+            File contentFile = new File(cacheDir, entry.getContentName());
+            writeString(out, entry.getContentName());
+            out.writeLong(contentFile.length());
+            out.writeLong(contentFile.lastModified());
+            out.writeInt(headers.size());
+            for (Entry<String, String> header : headers.entrySet())
+            {
+               writeString(out, header.getKey());
+               writeString(out, header.getValue());
+            }
+         }
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   /**
+    * Read the given snapshot file and index its entries.
+    * @throws IOException If the file cannot be read or is not a valid snapshot
+    */
+   static ManifestSnapshot read(File snapshotFile) throws IOException
+   {
+      // A mapped file cannot be released explicitly, it would stay locked on some platforms
+      ByteBuffer buffer;
+      FileInputStream fis = new FileInputStream(snapshotFile);
+      try
+      {
+         FileChannel channel = fis.getChannel();
+         long size = channel.size();
+         if (size > Integer.MAX_VALUE)
+            throw new IOException("Invalid manifest snapshot: " + snapshotFile);
+
+         buffer = ByteBuffer.allocate((int)size);
+         while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+            ;
+
+         buffer.flip();
+      }
+      finally
+      {
+         fis.close();
+      }
+
+      try
+      {
+         if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+            throw new IOException("Invalid manifest snapshot: " + snapshotFile);
+
+         int count = buffer.getInt();
+         Map<String, Integer> positions = new HashMap<String, Integer>(count * 2);
+         for (int i = 0; i < count; i++)
+         {
+            String contentName = readString(buffer);
+            positions.put(contentName, buffer.position());
+            buffer.position(buffer.position() + 16);
+            int headerCount = buffer.getInt();
+            for (int j = 0; j < 2 * headerCount; j++)
+               skipString(buffer);
+         }
+         return new ManifestSnapshot(buffer, positions);
+      }
+      catch (RuntimeException ex)
+      {
+         // A truncated or corrupt snapshot
+         throw new IOException("Invalid manifest snapshot: " + snapshotFile, ex);
+      }
+   }
+
+   /**
+    * Get the snapshot headers of the given cached content.
+    * @return The headers or null if there is no entry for the content or the content changed since the snapshot was taken
+    */
+   Map<String, String> getHeaders(File contentFile)
+   {
+      Integer position = positions.get(contentFile.getName());
+      if (position == null)
+         return null;
+
+      // Use a private view, the position of the shared buffer is not thread safe
+      ByteBuffer view = buffer.duplicate();
+      view.position(position);
+      if (view.getLong() != contentFile.length() || view.getLong() != contentFile.lastModified())
+         return null;
+
+      int headerCount = view.getInt();
+      Map<String, String> headers = new LinkedHashMap<String, String>(headerCount * 2);
+      for (int i = 0; i < headerCount; i++)
+      {
+         String name = readString(view);
+         String value = readString(view);
+         headers.put(name, value);
+      }
+      return headers;
+   }
+
+   private static void writeString(DataOutputStream out, String value) throws IOException
+   {
+      byte[] bytes = value.getBytes(UTF8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private static String readString(ByteBuffer buffer)
+   {
+      byte[] bytes = new byte[buffer.getInt()];
+      buffer.get(bytes);
+      try
+      {
+         return new String(bytes, UTF8);
+      }
+      catch (UnsupportedEncodingException ex)
+      {
+         throw new IllegalStateException(ex);
+      }
+   }
+
+   private static void skipString(ByteBuffer buffer)
+   {
+      int length = buffer.getInt();
+      buffer.position(buffer.position() + length);
+   }
+}
@@ -116,4 +116,21 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
       return moduleManager.removeModule(identifier);
    }
 
+   @Override
+   public Boolean getClassSpaceConsistency(ModuleIdentifier requester, ModuleIdentifier owner, String className)
+   {
+      return moduleManager.getClassSpaceConsistency(requester, owner, className);
+   }
+
+   @Override
+   public long getClassSpaceGeneration()
+   {
+      return moduleManager.getClassSpaceGeneration();
+   }
+
+   @Override
+   public void putClassSpaceConsistency(ModuleIdentifier requester, ModuleIdentifier owner, String className, boolean consistent, long generation)
+   {
+      moduleManager.putClassSpaceConsistency(requester, owner, className, consistent, generation);
+   }
 }
\ No newline at end of file
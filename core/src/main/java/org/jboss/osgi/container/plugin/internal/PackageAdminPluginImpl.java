@@ -34,7 +34,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 import org.jboss.logging.Logger;
 import org.jboss.modules.Module;
@@ -327,7 +326,7 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
    private Executor getExecutor()
    {
       if (executor == null)
-         executor = Executors.newSingleThreadExecutor();
+         executor = getBundleManager().getFrameworkState().getExecutorFactory().newSingleThreadExecutor("jbosgi-packageadmin");
       return executor;
    }
 
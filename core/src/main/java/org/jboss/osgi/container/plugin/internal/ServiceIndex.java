@@ -0,0 +1,530 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.plugin.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.osgi.container.bundle.ServiceState;
+import org.jboss.osgi.container.util.CompiledFilter;
+import org.jboss.osgi.container.util.ServiceProperties;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+
+/**
+ * An in-memory index of the registered services.
+ * 
+ * The index is maintained on register, unregister and setProperties. Service lookups read 
+ * the index directly, the MSC ServiceContainer is only used for lifecycle and dependency injection.
+ * 
+ * Every service interface maps to a concurrent skip-list of {@link ServiceState}s, which is keyed
+ * by service ranking (descending) and service id (ascending). Lookups can therefore read the 
+ * candidates in result order without sorting. A global map with the same keys holds all registered 
+ * services. 
+ * 
+ * Additionally, a configurable set of property keys (e.g. service.pid) is indexed by value. Lookups 
+ * with a filter that constrains such a key to a set of values only examine the services with one of 
+ * these values, also when no class name is given. 
+ * 
+ * The index of a service is modified while holding the lock of the {@link ServiceState}. When its 
+ * properties are modified, the service is added under its new ranking and property values before it 
+ * is removed under the old ones. Concurrent lookups therefore always see the service, but may see it
+ * twice. A lookup that iterates the candidates uses {@link #getUpdateStamp()} to detect that.
+ * 
+ * @since 18-Oct-2026
+ */
+final class ServiceIndex
+{
+   // The reverse compareTo ordering of ServiceReferences, i.e. ranking descending and service id ascending
+   static final Comparator<ServiceState> RANKING_ORDER = new Comparator<ServiceState>()
+   {
+      @Override
+      public int compare(ServiceState s1, ServiceState s2)
+      {
+         return IndexKey.compare(s1.getServiceRanking(), s1.getServiceId(), s2.getServiceRanking(), s2.getServiceId());
+      }
+   };
+
+   // Maps the service interface to the ranking ordered registered services
+   private final Map<String, ConcurrentSkipListMap<IndexKey, ServiceState>> classIndex = new ConcurrentHashMap<String, ConcurrentSkipListMap<IndexKey, ServiceState>>();
+   // All registered services in ranking order
+   private final ConcurrentSkipListMap<IndexKey, ServiceState> allServices = new ConcurrentSkipListMap<IndexKey, ServiceState>();
+   // Maps the interned lower case property key to its value index
+   private final Map<String, PropertyIndex> propertyIndexes = new HashMap<String, PropertyIndex>();
+
+   // The number of property updates that have been started and that are in progress
+   private final AtomicLong updateCount = new AtomicLong();
+   private final AtomicInteger pendingUpdates = new AtomicInteger();
+
+   /**
+    * Create a service index that additionally indexes the given property keys by value
+    */
+   ServiceIndex(Collection<String> propertyKeys)
+   {
+      for (String key : propertyKeys)
+      {
+         key = key.trim().toLowerCase(Locale.ENGLISH).intern();
+         if (key.length() > 0 && key.equals("objectclass") == false)
+            propertyIndexes.put(key, new PropertyIndex(key));
+      }
+   }
+
+   /**
+    * Add the service under all of its object classes
+    */
+   void addService(ServiceState serviceState)
+   {
+      synchronized (serviceState)
+      {
+         IndexKey key = new IndexKey(serviceState.getServiceRanking(), serviceState.getServiceId());
+         for (String className : getObjectClasses(serviceState))
+            getClassServices(className).put(key, serviceState);
+
+         allServices.put(key, serviceState);
+
+         ServiceProperties props = serviceState.getProperties();
+         for (PropertyIndex index : propertyIndexes.values())
+            index.addService(key, serviceState, props.get(index.key));
+      }
+   }
+
+   /**
+    * Add the services of a batch registration
+    */
+   void addServices(Collection<ServiceState> serviceStates)
+   {
+      for (ServiceState serviceState : serviceStates)
+         addService(serviceState);
+   }
+
+   /**
+    * Remove the service from all of its object classes
+    */
+   void removeService(ServiceState serviceState)
+   {
+      synchronized (serviceState)
+      {
+         IndexKey key = new IndexKey(serviceState.getServiceRanking(), serviceState.getServiceId());
+         for (String className : getObjectClasses(serviceState))
+         {
+            Map<IndexKey, ServiceState> services = classIndex.get(className);
+            if (services != null)
+               services.remove(key);
+         }
+         allServices.remove(key);
+
+         ServiceProperties props = serviceState.getProperties();
+         for (PropertyIndex index : propertyIndexes.values())
+            index.removeService(key, props.get(index.key), null, null);
+      }
+   }
+
+   /**
+    * Modify the properties of the service and move it to its new ranking and property values.
+    * A service that is not indexed, because it was unregistered concurrently, is not indexed again.
+    * 
+    * @throws IllegalArgumentException If the properties contain the same key in different case
+    */
+   void updateService(ServiceState serviceState, Dictionary<?, ?> properties)
+   {
+      synchronized (serviceState)
+      {
+         ServiceProperties oldProps = serviceState.getProperties();
+         ServiceProperties newProps = serviceState.createProperties(properties);
+
+         IndexKey oldKey = new IndexKey(serviceState.getServiceRanking(), serviceState.getServiceId());
+         if (serviceState.isUnregistered() || allServices.get(oldKey) != serviceState)
+         {
+            serviceState.setPropertiesInternal(newProps);
+            return;
+         }
+
+         // Lookups must know about the update before the service can be seen twice
+         pendingUpdates.incrementAndGet();
+         updateCount.incrementAndGet();
+         try
+         {
+            IndexKey newKey = new IndexKey(ServiceState.getServiceRanking(newProps), serviceState.getServiceId());
+            boolean reordered = newKey.equals(oldKey) == false;
+            if (reordered)
+            {
+               for (String className : getObjectClasses(serviceState))
+                  getClassServices(className).put(newKey, serviceState);
+
+               allServices.put(newKey, serviceState);
+            }
+            for (PropertyIndex index : propertyIndexes.values())
+               index.addService(newKey, serviceState, newProps.get(index.key));
+
+            serviceState.setPropertiesInternal(newProps);
+
+            for (PropertyIndex index : propertyIndexes.values())
+               index.removeService(oldKey, oldProps.get(index.key), newKey, newProps.get(index.key));
+
+            if (reordered)
+            {
+               for (String className : getObjectClasses(serviceState))
+                  classIndex.get(className).remove(oldKey);
+
+               allServices.remove(oldKey);
+            }
+         }
+         finally
+         {
+            pendingUpdates.decrementAndGet();
+         }
+      }
+   }
+
+   /**
+    * Get a stamp to be passed to {@link #isUpdatedSince(long)} after iterating the candidates of a lookup.
+    */
+   long getUpdateStamp()
+   {
+      long stamp = updateCount.get();
+      return pendingUpdates.get() > 0 ? -1 : stamp;
+   }
+
+   /**
+    * True if properties were modified while the candidates of a lookup were iterated.
+    * The candidates may then contain a service twice.
+    */
+   boolean isUpdatedSince(long stamp)
+   {
+      return stamp < 0 || stamp != updateCount.get();
+   }
+
+   /**
+    * Remove the services that are contained more than once, keeping the ranking order.
+    */
+   static List<ServiceState> removeDuplicates(List<ServiceState> serviceStates)
+   {
+      Set<ServiceState> result = new LinkedHashSet<ServiceState>(serviceStates);
+      return result.size() < serviceStates.size() ? new ArrayList<ServiceState>(result) : serviceStates;
+   }
+
+   private ConcurrentSkipListMap<IndexKey, ServiceState> getClassServices(String className)
+   {
+      ConcurrentSkipListMap<IndexKey, ServiceState> services = classIndex.get(className);
+      if (services == null)
+      {
+         synchronized (classIndex)
+         {
+            services = classIndex.get(className);
+            if (services == null)
+            {
+               services = new ConcurrentSkipListMap<IndexKey, ServiceState>();
+               classIndex.put(className, services);
+            }
+         }
+      }
+      return services;
+   }
+
+   /**
+    * Get the ranking ordered services that are registered under the given class name.
+    * @return A live view of the index or an empty collection
+    */
+   Collection<ServiceState> getServices(String className)
+   {
+      Map<IndexKey, ServiceState> services = classIndex.get(className);
+      if (services == null)
+         return Collections.emptySet();
+
+      return Collections.unmodifiableCollection(services.values());
+   }
+
+   /**
+    * Get the highest ranking service that is registered under the given class name.
+    * @return The service or null
+    */
+   ServiceState getFirstService(String className)
+   {
+      ConcurrentSkipListMap<IndexKey, ServiceState> services = classIndex.get(className);
+      if (services == null)
+         return null;
+
+      Map.Entry<IndexKey, ServiceState> entry = services.firstEntry();
+      return entry != null ? entry.getValue() : null;
+   }
+
+   /**
+    * Get the ranking ordered candidates for a lookup with the given class name and filter.
+    * 
+    * The candidates are taken from the smallest index that the lookup can use. This is a property 
+    * index if the filter constrains an indexed key to a set of values, otherwise the class index
+    * and only if neither can be used all registered services. All candidates are registered under 
+    * the given class name, but still need to be matched against the filter.
+    * 
+    * @param className The class name or null
+    * @param filter The filter or null
+    * @return The candidate services
+    */
+   Collection<ServiceState> getCandidates(String className, Filter filter)
+   {
+      CompiledFilter compiled = (filter instanceof CompiledFilter ? (CompiledFilter)filter : null);
+
+      Collection<ServiceState> candidates = (compiled != null ? getPropertyCandidates(compiled) : null);
+      if (candidates != null)
+      {
+         if (className == null)
+            return candidates;
+
+         List<ServiceState> result = new ArrayList<ServiceState>();
+         for (ServiceState serviceState : candidates)
+         {
+            if (Arrays.asList(getObjectClasses(serviceState)).contains(className))
+               result.add(serviceState);
+         }
+         return result;
+      }
+
+      if (className != null)
+         return getServices(className);
+
+      Set<String> objectClasses = (compiled != null ? compiled.getRequiredValues(Constants.OBJECTCLASS) : null);
+      if (objectClasses != null)
+      {
+         if (objectClasses.size() == 1)
+            return getServices(objectClasses.iterator().next());
+
+         Set<ServiceState> result = new TreeSet<ServiceState>(RANKING_ORDER);
+         for (String objectClass : objectClasses)
+            result.addAll(getServices(objectClass));
+
+         return result;
+      }
+
+      return getAllServices();
+   }
+
+   // Get the candidates from the smallest property index that the filter can use or null
+   private Collection<ServiceState> getPropertyCandidates(CompiledFilter filter)
+   {
+      Collection<ServiceState> result = null;
+      for (PropertyIndex index : propertyIndexes.values())
+      {
+         Set<String> values = filter.getRequiredValues(index.key);
+         if (values != null)
+         {
+            Collection<ServiceState> candidates = index.getServices(values);
+            if (result == null || candidates.size() < result.size())
+               result = candidates;
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Get all registered services.
+    * @return A ranking ordered live view of the registered services
+    */
+   Collection<ServiceState> getAllServices()
+   {
+      return Collections.unmodifiableCollection(allServices.values());
+   }
+
+   private static String[] getObjectClasses(ServiceState serviceState)
+   {
+      return (String[])serviceState.getProperty(Constants.OBJECTCLASS);
+   }
+
+   /**
+    * Indexes the services by the value of a single property key.
+    * 
+    * Only string values are indexed. Services with a value of another type are kept in a separate
+    * map, which is always part of the candidates because the filter may still match them.
+    */
+   private static final class PropertyIndex
+   {
+      private final String key;
+      private final Map<String, ConcurrentSkipListMap<IndexKey, ServiceState>> valueIndex = new ConcurrentHashMap<String, ConcurrentSkipListMap<IndexKey, ServiceState>>();
+      private final ConcurrentSkipListMap<IndexKey, ServiceState> unindexed = new ConcurrentSkipListMap<IndexKey, ServiceState>();
+
+      PropertyIndex(String key)
+      {
+         this.key = key;
+      }
+
+      synchronized void addService(IndexKey indexKey, ServiceState serviceState, Object value)
+      {
+         if (value == null)
+            return;
+
+         List<String> values = getStringValues(value);
+         if (values == null)
+         {
+            unindexed.put(indexKey, serviceState);
+            return;
+         }
+
+         for (String aux : values)
+         {
+            ConcurrentSkipListMap<IndexKey, ServiceState> services = valueIndex.get(aux);
+            if (services == null)
+            {
+               services = new ConcurrentSkipListMap<IndexKey, ServiceState>();
+               valueIndex.put(aux, services);
+            }
+            services.put(indexKey, serviceState);
+         }
+      }
+
+      /**
+       * Remove the service under the given key and value. 
+       * Entries that were added for the modified properties under the same key are kept.
+       */
+      synchronized void removeService(IndexKey indexKey, Object value, IndexKey newKey, Object newValue)
+      {
+         if (value == null)
+            return;
+
+         boolean sameKey = indexKey.equals(newKey);
+         List<String> newValues = (sameKey && newValue != null ? getStringValues(newValue) : null);
+         List<String> values = getStringValues(value);
+         if (values == null)
+         {
+            if (sameKey == false || newValue == null || newValues != null)
+               unindexed.remove(indexKey);
+            return;
+         }
+
+         for (String aux : values)
+         {
+            if (newValues != null && newValues.contains(aux))
+               continue;
+
+            Map<IndexKey, ServiceState> services = valueIndex.get(aux);
+            if (services != null)
+            {
+               services.remove(indexKey);
+               if (services.isEmpty())
+                  valueIndex.remove(aux);
+            }
+         }
+      }
+
+      // Get the services that have at least one of the given values
+      Collection<ServiceState> getServices(Set<String> values)
+      {
+         if (values.size() == 1 && unindexed.isEmpty())
+         {
+            Map<IndexKey, ServiceState> services = valueIndex.get(values.iterator().next());
+            return services != null ? Collections.unmodifiableCollection(services.values()) : Collections.<ServiceState> emptySet();
+         }
+
+         Set<ServiceState> result = new TreeSet<ServiceState>(RANKING_ORDER);
+         result.addAll(unindexed.values());
+         for (String value : values)
+         {
+            Map<IndexKey, ServiceState> services = valueIndex.get(value);
+            if (services != null)
+               result.addAll(services.values());
+         }
+         return result;
+      }
+
+      // Get the string values of the given property value or null if there are values of another type
+      private static List<String> getStringValues(Object value)
+      {
+         Collection<?> values;
+         if (value instanceof String)
+            return Collections.singletonList((String)value);
+         else if (value instanceof Object[])
+            values = Arrays.asList((Object[])value);
+         else if (value instanceof Collection<?>)
+            values = (Collection<?>)value;
+         else
+            return null;
+
+         List<String> result = new ArrayList<String>();
+         for (Object aux : values)
+         {
+            if (aux instanceof String == false)
+               return null;
+
+            result.add((String)aux);
+         }
+         return result;
+      }
+   }
+
+   /**
+    * The immutable position of a service in the ranking ordered maps
+    */
+   private static final class IndexKey implements Comparable<IndexKey>
+   {
+      private final int ranking;
+      private final long serviceId;
+
+      IndexKey(int ranking, long serviceId)
+      {
+         this.ranking = ranking;
+         this.serviceId = serviceId;
+      }
+
+      static int compare(int r1, long id1, int r2, long id2)
+      {
+         if (r1 != r2)
+            return r1 > r2 ? -1 : 1;
+
+         return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+      }
+
+      @Override
+      public int compareTo(IndexKey other)
+      {
+         return compare(ranking, serviceId, other.ranking, other.serviceId);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return 31 * ranking + (int)(serviceId ^ (serviceId >>> 32));
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (obj instanceof IndexKey == false)
+            return false;
+
+         IndexKey other = (IndexKey)obj;
+         return ranking == other.ranking && serviceId == other.serviceId;
+      }
+   }
+}
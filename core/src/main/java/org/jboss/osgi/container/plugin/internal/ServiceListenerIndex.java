@@ -0,0 +1,157 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.plugin.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jboss.osgi.container.bundle.ServiceState;
+import org.jboss.osgi.container.plugin.internal.FrameworkEventsPluginImpl.ServiceListenerRegistration;
+import org.osgi.framework.Constants;
+
+/**
+ * An index of the registered service listeners.
+ *
+ * Listeners are indexed by the objectClass values that their filter requires. A listener with a filter
+ * like (objectClass=com.acme.Foo) can only match services that are registered under com.acme.Foo.
+ * Listeners without such a constraint go into a residual bucket that is a candidate for every event.
+ *
+ * The buckets are copy-on-write, so that event dispatch reads them without locking.
+ *
+ * @since 18-Oct-2026
+ */
+final class ServiceListenerIndex
+{
+   // Maps the objectClass to the listeners that require it
+   private final Map<String, List<ServiceListenerRegistration>> classIndex = new ConcurrentHashMap<String, List<ServiceListenerRegistration>>();
+   // The listeners that can match any service
+   private final List<ServiceListenerRegistration> residual = new CopyOnWriteArrayList<ServiceListenerRegistration>();
+
+   /**
+    * Add the listener registration to the index
+    */
+   synchronized void addListener(ServiceListenerRegistration slreg)
+   {
+      Set<String> objectClasses = slreg.getObjectClasses();
+      if (objectClasses == null)
+      {
+         residual.add(slreg);
+         return;
+      }
+
+      for (String className : objectClasses)
+      {
+         List<ServiceListenerRegistration> listeners = classIndex.get(className);
+         if (listeners == null)
+         {
+            listeners = new CopyOnWriteArrayList<ServiceListenerRegistration>();
+            classIndex.put(className, listeners);
+         }
+         listeners.add(slreg);
+      }
+   }
+
+   /**
+    * Remove the listener registration from the index
+    */
+   synchronized void removeListener(ServiceListenerRegistration slreg)
+   {
+      Set<String> objectClasses = slreg.getObjectClasses();
+      if (objectClasses == null)
+      {
+         removeIdentity(residual, slreg);
+         return;
+      }
+
+      for (String className : objectClasses)
+      {
+         List<ServiceListenerRegistration> listeners = classIndex.get(className);
+         if (listeners != null)
+         {
+            removeIdentity(listeners, slreg);
+            if (listeners.isEmpty())
+               classIndex.remove(className);
+         }
+      }
+   }
+
+   /**
+    * Get the listeners whose filter can possibly match the given service.
+    * The filters of the returned listeners still need to be evaluated.
+    * The returned list must not be modified.
+    */
+   List<ServiceListenerRegistration> getCandidates(ServiceState serviceState)
+   {
+      String[] objectClasses = (String[])serviceState.getProperty(Constants.OBJECTCLASS);
+
+      // Return a single bucket directly, iterating a copy-on-write list is safe
+      if (objectClasses.length == 1)
+      {
+         List<ServiceListenerRegistration> listeners = classIndex.get(objectClasses[0]);
+         if (listeners == null)
+            return residual;
+         if (residual.isEmpty())
+            return listeners;
+      }
+
+      // A listener can only be in more than one bucket if the service has multiple interfaces.
+      // Registrations are equal by listener, the same listener may however be registered by multiple bundles
+      Collection<ServiceListenerRegistration> result;
+      if (objectClasses.length > 1)
+         result = Collections.newSetFromMap(new IdentityHashMap<ServiceListenerRegistration, Boolean>());
+      else
+         result = new ArrayList<ServiceListenerRegistration>();
+
+      for (String className : objectClasses)
+      {
+         List<ServiceListenerRegistration> listeners = classIndex.get(className);
+         if (listeners != null)
+            result.addAll(listeners);
+      }
+      result.addAll(residual);
+
+      if (result instanceof List)
+         return (List<ServiceListenerRegistration>)result;
+
+      return new ArrayList<ServiceListenerRegistration>(result);
+   }
+
+   // Registrations are equal by listener, so remove the given instance
+   private static void removeIdentity(List<ServiceListenerRegistration> listeners, ServiceListenerRegistration slreg)
+   {
+      for (int i = 0; i < listeners.size(); i++)
+      {
+         if (listeners.get(i) == slreg)
+         {
+            listeners.remove(i);
+            return;
+         }
+      }
+   }
+}
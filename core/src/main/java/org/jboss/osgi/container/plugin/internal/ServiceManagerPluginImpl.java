@@ -21,22 +21,26 @@
  */
 package org.jboss.osgi.container.plugin.internal;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 import org.jboss.logging.Logger;
+import org.jboss.msc.service.AbstractServiceListener;
 import org.jboss.msc.service.BatchBuilder;
 import org.jboss.msc.service.BatchServiceBuilder;
 import org.jboss.msc.service.Service;
@@ -50,24 +54,29 @@ import org.jboss.msc.service.StartException;
 import org.jboss.msc.service.StopContext;
 import org.jboss.osgi.container.bundle.AbstractBundle;
 import org.jboss.osgi.container.bundle.BundleManager;
-import org.jboss.osgi.container.bundle.ServiceReferenceComparator;
 import org.jboss.osgi.container.bundle.ServiceState;
 import org.jboss.osgi.container.plugin.AbstractPlugin;
 import org.jboss.osgi.container.plugin.FrameworkEventsPlugin;
 import org.jboss.osgi.container.plugin.PackageAdminPlugin;
 import org.jboss.osgi.container.plugin.ServiceManagerPlugin;
+import org.jboss.osgi.container.spi.BatchServiceRegistry;
+import org.jboss.osgi.container.spi.ServiceDescriptor;
+import org.jboss.osgi.container.spi.ServiceMetricsMBean;
+import org.jboss.osgi.container.util.CompiledFilter;
 import org.jboss.osgi.container.util.NoFilter;
 import org.jboss.osgi.container.util.RemoveOnlyCollection;
+import org.jboss.osgi.container.util.ServiceMetrics;
 import org.jboss.osgi.modules.ModuleContext;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.hooks.service.EventHook;
 import org.osgi.framework.hooks.service.FindHook;
 import org.osgi.framework.hooks.service.ListenerHook;
 import org.osgi.framework.hooks.service.ListenerHook.ListenerInfo;
@@ -78,39 +87,165 @@ import org.osgi.framework.hooks.service.ListenerHook.ListenerInfo;
  * @author thomas.diesler@jboss.com
  * @since 18-Aug-2009
  */
-public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceManagerPlugin
+public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceManagerPlugin, BatchServiceRegistry
 {
    // Provide logging
    private final Logger log = Logger.getLogger(ServiceManagerPluginImpl.class);
 
+   // The framework property that names additional service property keys to index by value
+   static final String PROP_SERVICE_INDEX_KEYS = "org.jboss.osgi.service.index.keys";
+
+   // The object name of the service metrics MBean
+   static final String METRICS_OBJECT_NAME = "jboss.osgi:service=ServiceMetrics";
+
+   // The parent name of all xservices
+   private static final ServiceName XSERVICE_BASE_NAME = ServiceName.of(ModuleContext.XSERVICE_PREFIX);
+
    // The ServiceId generator 
    private AtomicLong identityGenerator = new AtomicLong();
    // The ServiceContainer
    private ServiceContainer serviceContainer;
-   // Maps the service interface to the list of registered service names
-   private Map<String, List<ServiceName>> serviceNameMap = new ConcurrentHashMap<String, List<ServiceName>>();
+   // The view of the ServiceContainer that registers the xservices installed through it
+   private ServiceContainer xserviceContainer;
+   // The index of registered services
+   private ServiceIndex serviceIndex;
+   // The registered xservices by their controller name
+   private final ConcurrentMap<ServiceName, ServiceState> xservices = new ConcurrentHashMap<ServiceName, ServiceState>();
+   // The cached service hooks by hook class name
+   private final Map<String, HookCache<?>> hookCaches = new HashMap<String, HookCache<?>>();
+   private final HookCache<FindHook> findHooks = new HookCache<FindHook>(FindHook.class);
+   // The service registry metrics
+   private final ServiceMetrics metrics = new ServiceMetrics();
+   private ObjectName metricsName;
 
    // Cache commonly used plugins
    private FrameworkEventsPlugin eventsPlugin;
-   private PackageAdminPlugin packageAdmin;
+   private ServiceRegistration registration;
 
    public ServiceManagerPluginImpl(BundleManager bundleManager)
    {
       super(bundleManager);
+      hookCaches.put(FindHook.class.getName(), findHooks);
+      hookCaches.put(EventHook.class.getName(), new HookCache<EventHook>(EventHook.class));
+      hookCaches.put(ListenerHook.class.getName(), new HookCache<ListenerHook>(ListenerHook.class));
    }
 
    @Override
    public void initPlugin()
    {
       serviceContainer = ServiceContainer.Factory.create();
+      xserviceContainer = new XServiceContainer(serviceContainer, this, null);
+      serviceIndex = new ServiceIndex(getIndexedPropertyKeys());
       eventsPlugin = getPlugin(FrameworkEventsPlugin.class);
-      packageAdmin = getPlugin(PackageAdminPlugin.class);
+   }
+
+   @Override
+   public void startPlugin()
+   {
+      BundleContext sysContext = getBundleManager().getSystemContext();
+      registration = sysContext.registerService(BatchServiceRegistry.class.getName(), this, null);
+
+      if (ServiceMetrics.ENABLED)
+         registerMetricsMBean();
+   }
+
+   @Override
+   public void stopPlugin()
+   {
+      if (registration != null)
+      {
+         registration.unregister();
+         registration = null;
+      }
+
+      if (metricsName != null)
+         unregisterMetricsMBean();
+   }
+
+   private void registerMetricsMBean()
+   {
+      try
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName objectName = new ObjectName(METRICS_OBJECT_NAME);
+         server.registerMBean(new StandardMBean(metrics, ServiceMetricsMBean.class), objectName);
+         metricsName = objectName;
+      }
+      catch (Exception ex)
+      {
+         // Another framework in this virtual machine may have registered the MBean already
+         log.warn("Cannot register service metrics: " + METRICS_OBJECT_NAME, ex);
+      }
+   }
+
+   private void unregisterMetricsMBean()
+   {
+      try
+      {
+         ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+      }
+      catch (Exception ex)
+      {
+         log.warn("Cannot unregister service metrics: " + metricsName, ex);
+      }
+      metricsName = null;
+   }
+
+   private List<String> getIndexedPropertyKeys()
+   {
+      List<String> keys = new ArrayList<String>();
+      keys.add(Constants.SERVICE_PID);
+
+      String keysProp = getBundleManager().getFrameworkState().getProperty(PROP_SERVICE_INDEX_KEYS);
+      if (keysProp != null)
+      {
+         for (String key : keysProp.split(","))
+            keys.add(key);
+      }
+      return keys;
+   }
+
+   @Override
+   @SuppressWarnings("unchecked")
+   public <T> List<T> getServiceHooks(Class<T> hookClass)
+   {
+      HookCache<?> cache = hookCaches.get(hookClass.getName());
+      if (cache == null)
+         throw new IllegalArgumentException("Not a service hook: " + hookClass.getName());
+
+      return (List<T>)cache.getHooks();
+   }
+
+   // Invalidate the cached hooks if the given service is a hook
+   private void invalidateServiceHooks(ServiceState serviceState)
+   {
+      for (String className : (String[])serviceState.getProperty(Constants.OBJECTCLASS))
+      {
+         HookCache<?> cache = hookCaches.get(className);
+         if (cache != null)
+            cache.invalidate();
+      }
+   }
+
+   @Override
+   public ServiceMetrics getServiceMetrics()
+   {
+      return metrics;
    }
 
    @Override
    public ServiceContainer getServiceContainer()
    {
-      return serviceContainer;
+      return xserviceContainer;
+   }
+
+   @Override
+   public ServiceContainer getServiceContainer(AbstractBundle bundleState)
+   {
+      if (bundleState == null)
+         throw new IllegalArgumentException("Null bundleState");
+
+      return new XServiceContainer(serviceContainer, this, bundleState);
    }
 
    @Override
@@ -120,20 +255,113 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
    }
 
    @Override
-   @SuppressWarnings({ "rawtypes", "unchecked" })
+   @SuppressWarnings("rawtypes")
    public ServiceState registerService(AbstractBundle bundleState, String[] clazzes, Object serviceValue, Dictionary properties)
    {
       if (clazzes == null || clazzes.length == 0)
          throw new IllegalArgumentException("Null service classes");
 
+      ServiceDescriptor descriptor = new ServiceDescriptor(clazzes, serviceValue, properties);
+      return registerServices(bundleState, Collections.singletonList(descriptor)).get(0);
+   }
+
+   @Override
+   public List<ServiceState> registerServices(AbstractBundle bundleState, List<ServiceDescriptor> descriptors)
+   {
+      if (descriptors == null)
+         throw new IllegalArgumentException("Null descriptors");
+
       // Immediately after registration of a {@link ListenerHook}, the ListenerHook.added() method will be called 
       // to provide the current collection of service listeners which had been added prior to the hook being registered.
       Collection<ListenerInfo> listenerInfos = null;
-      if (serviceValue instanceof ListenerHook)
-         listenerInfos = eventsPlugin.getServiceListenerInfos(null);
+      for (ServiceDescriptor descriptor : descriptors)
+      {
+         if (descriptor.getService() instanceof ListenerHook)
+         {
+            listenerInfos = eventsPlugin.getServiceListenerInfos(null);
+            break;
+         }
+      }
+
+      // Add all services to a single batch
+      BatchBuilder batchBuilder = serviceContainer.batchBuilder();
+      List<ServiceState> serviceStates = new ArrayList<ServiceState>(descriptors.size());
+      for (ServiceDescriptor descriptor : descriptors)
+      {
+         ServiceState serviceState = addService(batchBuilder, bundleState, descriptor);
+         serviceStates.add(serviceState);
+      }
+
+      // Track the installed controllers, the batch may fail after some of them were installed
+      final List<ServiceController<?>> installed = Collections.synchronizedList(new ArrayList<ServiceController<?>>());
+      batchBuilder.addListener(new AbstractServiceListener<Object>()
+      {
+         @Override
+         public void listenerAdded(ServiceController<? extends Object> controller)
+         {
+            installed.add(controller);
+         }
+      });
+
+      try
+      {
+         batchBuilder.install();
+      }
+      catch (ServiceRegistryException ex)
+      {
+         // None of the services is registered
+         for (ServiceController<?> controller : installed)
+            controller.setMode(Mode.REMOVE);
+
+         throw new IllegalStateException("Cannot register services: " + serviceStates, ex);
+      }
+
+      // Add the services to the registry index
+      bundleState.addRegisteredServices(serviceStates);
+      serviceIndex.addServices(serviceStates);
+      for (ServiceState serviceState : serviceStates)
+         invalidateServiceHooks(serviceState);
+
+      // Call the newly added ListenerHook.added() methods
+      if (listenerInfos != null)
+      {
+         for (ServiceDescriptor descriptor : descriptors)
+         {
+            if (descriptor.getService() instanceof ListenerHook)
+            {
+               ListenerHook listenerHook = (ListenerHook)descriptor.getService();
+               listenerHook.added(listenerInfos);
+            }
+         }
+      }
+
+      // This event is synchronously delivered after the service has been registered with the Framework. 
+      for (ServiceState serviceState : serviceStates)
+         eventsPlugin.fireServiceEvent(bundleState, ServiceEvent.REGISTERED, serviceState);
 
-      // A temporary association of the clazz and name
-      Map<ServiceName, String> associations = new HashMap<ServiceName, String>();
+      return serviceStates;
+   }
+
+   @Override
+   public List<ServiceRegistration> registerServices(BundleContext context, List<ServiceDescriptor> descriptors)
+   {
+      if (context == null)
+         throw new IllegalArgumentException("Null context");
+
+      // Getting the bundle fails for an invalid context
+      AbstractBundle bundleState = AbstractBundle.assertBundleState(context.getBundle());
+
+      List<ServiceRegistration> result = new ArrayList<ServiceRegistration>();
+      for (ServiceState serviceState : registerServices(bundleState, descriptors))
+         result.add(serviceState.getRegistration());
+
+      return result;
+   }
+
+   // Create the service state and add its MSC service to the given batch
+   private ServiceState addService(BatchBuilder batchBuilder, AbstractBundle bundleState, ServiceDescriptor descriptor)
+   {
+      String[] clazzes = descriptor.getClassNames();
 
       // Generate the service names
       long serviceId = getNextServiceId();
@@ -147,12 +375,11 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
          serviceNames[i] = ServiceName.of("jbosgi", bundleState.getSymbolicName(), shortName, new Long(serviceId).toString());
       }
 
-      final ServiceState serviceState = new ServiceState(bundleState, serviceId, serviceNames, clazzes, serviceValue, properties);
-      BatchBuilder batchBuilder = serviceContainer.batchBuilder();
-      Service service = new Service()
+      final ServiceState serviceState = new ServiceState(bundleState, serviceId, serviceNames, clazzes, descriptor.getService(), descriptor.getProperties());
+      Service<ServiceState> service = new Service<ServiceState>()
       {
          @Override
-         public Object getValue() throws IllegalStateException
+         public ServiceState getValue() throws IllegalStateException
          {
             // [TODO] for injection to work this needs to be the Object value
             return serviceState;
@@ -169,11 +396,11 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
          }
       };
 
-      log.debug("Register service: " + Arrays.asList(serviceNames));
+      if (log.isDebugEnabled())
+         log.debug("Register service: " + Arrays.asList(serviceNames));
 
       ServiceName rootServiceName = serviceNames[0];
-      BatchServiceBuilder serviceBuilder = batchBuilder.addService(rootServiceName, service);
-      associations.put(rootServiceName, clazzes[0]);
+      BatchServiceBuilder<ServiceState> serviceBuilder = batchBuilder.addService(rootServiceName, service);
 
       // Set the startup mode
       serviceBuilder.setInitialMode(Mode.AUTOMATIC);
@@ -182,37 +409,9 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       for (int i = 1; i < serviceNames.length; i++)
       {
          ServiceName alias = serviceNames[i];
-         associations.put(alias, clazzes[1]);
          serviceBuilder.addAliases(alias);
       }
 
-      try
-      {
-         batchBuilder.install();
-
-         // Register the name association. We do this here 
-         // in case anything went wrong during the install
-         for (Entry<ServiceName, String> aux : associations.entrySet())
-         {
-            bundleState.addRegisteredService(serviceState);
-            registerNameAssociation(aux.getValue(), aux.getKey());
-         }
-      }
-      catch (ServiceRegistryException ex)
-      {
-         log.error("Cannot register services: " + serviceNames, ex);
-      }
-
-      // Call the newly added ListenerHook.added() method
-      if (serviceValue instanceof ListenerHook)
-      {
-         ListenerHook listenerHook = (ListenerHook)serviceValue;
-         listenerHook.added(listenerInfos);
-      }
-
-      // This event is synchronously delivered after the service has been registered with the Framework. 
-      eventsPlugin.fireServiceEvent(bundleState, ServiceEvent.REGISTERED, serviceState);
-
       return serviceState;
    }
 
@@ -228,8 +427,38 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       if (clazz == null)
          throw new IllegalArgumentException("Null clazz");
 
-      boolean checkAssignable = (bundleState.getBundleId() != 0);
-      List<ServiceState> result = getServiceReferencesInternal(bundleState, clazz, null, checkAssignable);
+      // Without FindHooks the result is the head of the ranking ordered index
+      if (findHooks.getHooks().isEmpty())
+      {
+         ServiceState serviceState = serviceIndex.getFirstService(clazz);
+         if (serviceState == null || isMatchingService(bundleState, serviceState, clazz, NoFilter.INSTANCE, true))
+         {
+            if (ServiceMetrics.ENABLED)
+               metrics.lookup(clazz, serviceState != null ? 1 : 0, serviceState != null ? 1 : 0, false);
+
+            return serviceState;
+         }
+
+         // Fall back to the next assignable service
+         int scanned = 1;
+         ServiceState result = null;
+         for (ServiceState aux : serviceIndex.getServices(clazz))
+         {
+            scanned++;
+            if (isMatchingService(bundleState, aux, clazz, NoFilter.INSTANCE, true))
+            {
+               result = aux;
+               break;
+            }
+         }
+
+         if (ServiceMetrics.ENABLED)
+            metrics.lookup(clazz, scanned, result != null ? 1 : 0, false);
+
+         return result;
+      }
+
+      List<ServiceState> result = getServiceReferencesInternal(bundleState, clazz, null, true);
       result = processFindHooks(bundleState, clazz, null, true, result);
       if (result.isEmpty())
          return null;
@@ -243,7 +472,7 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
    {
       Filter filter = null;
       if (filterStr != null)
-         filter = FrameworkUtil.createFilter(filterStr);
+         filter = CompiledFilter.compile(filterStr);
 
       List<ServiceState> result = getServiceReferencesInternal(bundleState, clazz, filter, checkAssignable);
       result = processFindHooks(bundleState, clazz, filterStr, checkAssignable, result);
@@ -255,78 +484,52 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       if (bundleState == null)
          throw new IllegalArgumentException("Null bundleState");
 
-      List<ServiceName> serviceNames;
-      if (clazz != null)
-      {
-         serviceNames = serviceNameMap.get(clazz);
-         if (serviceNames == null)
-            serviceNames = new ArrayList<ServiceName>();
-
-         // Add potentially registered xservcie
-         ServiceName xserviceName = ServiceName.of(ModuleContext.XSERVICE_PREFIX, clazz);
-         ServiceController<?> xservice = serviceContainer.getService(xserviceName);
-         if (xservice != null)
-            serviceNames.add(xserviceName);
-      }
-      else
+      // Get the ranking ordered candidates from the registry index
+      long updateStamp = serviceIndex.getUpdateStamp();
+      Collection<ServiceState> candidates = serviceIndex.getCandidates(clazz, filter);
+      if (candidates.isEmpty())
       {
-         // [MSC-9] Add ability to query the ServiceContainer
-         Set<ServiceName> allServiceNames = new HashSet<ServiceName>();
-         for (List<ServiceName> auxList : serviceNameMap.values())
-            allServiceNames.addAll(auxList);
-
-         serviceNames = new ArrayList<ServiceName>(allServiceNames);
-      }
+         if (ServiceMetrics.ENABLED)
+            metrics.lookup(clazz, 0, 0, false);
 
-      if (serviceNames.isEmpty())
          return Collections.emptyList();
+      }
 
+      boolean filtered = (filter != null);
       if (filter == null)
          filter = NoFilter.INSTANCE;
 
+      // The candidates are already in ranking order
+      int scanned = 0;
       List<ServiceState> result = new ArrayList<ServiceState>();
-      for (ServiceName serviceName : serviceNames)
+      for (ServiceState serviceState : candidates)
       {
-         ServiceController<?> controller = serviceContainer.getService(serviceName);
-         if (controller == null)
-            throw new IllegalStateException("Cannot obtain service for: " + serviceName);
-
-         Object value = controller.getValue();
-
-         // Create the ServiceState on demand for an XService instance
-         // [TODO] This should be done eagerly to keep the serviceId constant
-         // [TODO] service events for XService lifecycle changes
-         // [MSC-17] Canonical ServiceName string representation
-         if (value instanceof ServiceState == false && serviceName.toString().contains(ModuleContext.XSERVICE_PREFIX))
-         {
-            long serviceId = getNextServiceId();
-            Bundle bundle = packageAdmin.getBundle(value.getClass());
-            AbstractBundle owner = AbstractBundle.assertBundleState(bundle);
-            value = new ServiceState(owner, serviceId, new ServiceName[] { serviceName }, new String[] { clazz }, value, null);
-         }
-
-         ServiceState serviceState = (ServiceState)value;
-         if (filter.match(serviceState) == false)
-            continue;
-
-         Object rawValue = serviceState.getRawValue();
-         
-         checkAssignable &= (clazz != null);
-         checkAssignable &= (bundleState.getBundleId() != 0);
-         checkAssignable &= !(rawValue instanceof ServiceFactory);
-         if (checkAssignable == false || serviceState.isAssignableTo(bundleState, clazz))
-         {
+         scanned++;
+         if (isMatchingService(bundleState, serviceState, clazz, filter, checkAssignable))
             result.add(serviceState);
-         }
       }
 
-      // Sort the result
-      Collections.sort(result, ServiceReferenceComparator.getInstance());
-      Collections.reverse(result);
+      // A service that was modified concurrently may have been seen twice
+      if (serviceIndex.isUpdatedSince(updateStamp))
+         result = ServiceIndex.removeDuplicates(result);
+
+      if (ServiceMetrics.ENABLED)
+         metrics.lookup(clazz, scanned, result.size(), filtered);
 
       return Collections.unmodifiableList(result);
    }
 
+   private boolean isMatchingService(AbstractBundle bundleState, ServiceState serviceState, String clazz, Filter filter, boolean checkAssignable)
+   {
+      if (filter.match(serviceState) == false)
+         return false;
+
+      checkAssignable &= (clazz != null);
+      checkAssignable &= (bundleState.getBundleId() != 0);
+      checkAssignable &= !(serviceState.getRawValue() instanceof ServiceFactory);
+      return checkAssignable == false || serviceState.isAssignableTo(bundleState, clazz);
+   }
+
    @Override
    public Object getService(AbstractBundle bundleState, ServiceState serviceState)
    {
@@ -336,7 +539,6 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
 
       // Add the given service ref to the list of used services
       bundleState.addServiceInUse(serviceState);
-      serviceState.addUsingBundle(bundleState);
 
       Object value = serviceState.getScopedValue(bundleState);
 
@@ -345,7 +547,6 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       if (value == null)
       {
          bundleState.removeServiceInUse(serviceState);
-         serviceState.removeUsingBundle(bundleState);
       }
 
       return value;
@@ -357,9 +558,6 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       serviceState.ungetScopedValue(bundleState);
 
       int useCount = bundleState.removeServiceInUse(serviceState);
-      if (useCount == 0)
-         serviceState.removeUsingBundle(bundleState);
-
       return useCount >= 0;
    }
 
@@ -369,28 +567,15 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       return bundleState.getServicesInUseInternal();
    }
 
-   private void registerNameAssociation(String className, ServiceName serviceName)
-   {
-      synchronized (serviceNameMap)
-      {
-         List<ServiceName> names = serviceNameMap.get(className);
-         if (names == null)
-         {
-            names = new CopyOnWriteArrayList<ServiceName>();
-            serviceNameMap.put(className, names);
-         }
-         names.add(serviceName);
-      }
-   }
-
-   private void unregisterNameAssociation(String className, ServiceName serviceName)
+   @Override
+   @SuppressWarnings("rawtypes")
+   public void updateServiceProperties(ServiceState serviceState, Dictionary properties)
    {
-      List<ServiceName> names = serviceNameMap.get(className);
-      if (names == null)
-         throw new IllegalStateException("Cannot obtain service names for: " + className);
+      // The index is ordered by service ranking, which may change with the properties
+      serviceIndex.updateService(serviceState, properties);
 
-      if (names.remove(serviceName) == false)
-         throw new IllegalStateException("Cannot remove [" + serviceName + "] from: " + names);
+      // The hook order may have changed
+      invalidateServiceHooks(serviceState);
    }
 
    @Override
@@ -403,12 +588,65 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
    public void unregisterService(ServiceState serviceState)
    {
       List<ServiceName> serviceNames = serviceState.getServiceNames();
-      log.debug("Unregister service: " + serviceNames);
+      if (log.isDebugEnabled())
+         log.debug("Unregister service: " + serviceNames);
+
+      removeService(serviceState);
+
+      // Remove from owner bundle
+      serviceState.getServiceOwner().removeRegisteredService(serviceState);
 
-      AbstractBundle serviceOwner = serviceState.getServiceOwner();
+      // The lifecycle of an xservice is driven by its controller
+      ServiceName rootServiceName = serviceNames.get(0);
+      if (isXServiceName(rootServiceName))
+         xservices.remove(rootServiceName, serviceState);
+      else
+         removeController(rootServiceName);
+   }
 
+   @Override
+   public void unregisterServices(AbstractBundle bundleState)
+   {
+      List<ServiceState> serviceStates = new ArrayList<ServiceState>(bundleState.getRegisteredServicesInternal());
+      if (serviceStates.isEmpty())
+         return;
+
+      if (log.isDebugEnabled())
+         log.debug("Unregister " + serviceStates.size() + " services of: " + bundleState);
+
+      List<ServiceName> removedNames = new ArrayList<ServiceName>(serviceStates.size());
+      List<ServiceState> removedStates = new ArrayList<ServiceState>(serviceStates.size());
+      for (ServiceState serviceState : serviceStates)
+      {
+         // A listener may have unregistered a service of this bundle already
+         if (serviceState.isUnregistered())
+            continue;
+
+         // Each service is gone from the registry before the next UNREGISTERING event is fired 
+         removeService(serviceState);
+         serviceState.unregisterInternal();
+         removedStates.add(serviceState);
+
+         ServiceName rootServiceName = serviceState.getServiceNames().get(0);
+         if (isXServiceName(rootServiceName))
+            xservices.remove(rootServiceName, serviceState);
+         else
+            removedNames.add(rootServiceName);
+      }
+
+      // Remove from owner bundle in one go
+      bundleState.removeRegisteredServices(removedStates);
+
+      // Remove the controllers after all services are gone from the registry
+      for (ServiceName serviceName : removedNames)
+         removeController(serviceName);
+   }
+
+   // Fire the UNREGISTERING event and remove the service from the registry
+   private void removeService(ServiceState serviceState)
+   {
       // This event is synchronously delivered before the service has completed unregistering. 
-      eventsPlugin.fireServiceEvent(serviceOwner, ServiceEvent.UNREGISTERING, serviceState);
+      eventsPlugin.fireServiceEvent(serviceState.getServiceOwner(), ServiceEvent.UNREGISTERING, serviceState);
 
       // Remove from using bundles
       for (AbstractBundle bundleState : serviceState.getUsingBundlesInternal())
@@ -417,30 +655,87 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
             ;
       }
 
-      // Remove from owner bundle
-      serviceOwner.removeRegisteredService(serviceState);
-
-      // Unregister name associations
-      for (ServiceName serviceName : serviceNames)
-      {
-         String[] clazzes = (String[])serviceState.getProperty(Constants.OBJECTCLASS);
-         for (String clazz : clazzes)
-            unregisterNameAssociation(clazz, serviceName);
-      }
+      // Remove from the registry index
+      serviceIndex.removeService(serviceState);
+      invalidateServiceHooks(serviceState);
+   }
 
-      // Remove from controller
-      ServiceName rootServiceName = serviceNames.get(0);
+   private void removeController(ServiceName serviceName)
+   {
       try
       {
-         ServiceController<?> controller = serviceContainer.getService(rootServiceName);
+         ServiceController<?> controller = serviceContainer.getService(serviceName);
          controller.setMode(Mode.REMOVE);
       }
       catch (RuntimeException ex)
       {
-         log.error("Cannot remove service: " + rootServiceName, ex);
+         log.error("Cannot remove service: " + serviceName, ex);
       }
    }
 
+   @Override
+   public ServiceState registerXService(AbstractBundle bundleState, ServiceController<?> controller)
+   {
+      if (bundleState == null)
+         throw new IllegalArgumentException("Null bundleState");
+      if (controller == null)
+         throw new IllegalArgumentException("Null controller");
+
+      ServiceName xserviceName = controller.getName();
+      if (isXServiceName(xserviceName) == false)
+         return null;
+
+      Object value = controller.getValue();
+      String clazz = xserviceName.getSimpleName();
+      ServiceState serviceState;
+      synchronized (xservices)
+      {
+         // A controller that is already registered keeps its service
+         ServiceState existing = xservices.get(xserviceName);
+         if (existing != null)
+            return existing;
+
+         // The service id is only taken by the registration that wins
+         serviceState = new ServiceState(bundleState, getNextServiceId(), new ServiceName[] { xserviceName }, new String[] { clazz }, value, null);
+         xservices.put(xserviceName, serviceState);
+      }
+
+      if (log.isDebugEnabled())
+         log.debug("Register xservice: " + xserviceName);
+
+      serviceIndex.addService(serviceState);
+      eventsPlugin.fireServiceEvent(bundleState, ServiceEvent.REGISTERED, serviceState);
+      return serviceState;
+   }
+
+   @Override
+   public void unregisterXService(ServiceController<?> controller)
+   {
+      if (controller == null)
+         throw new IllegalArgumentException("Null controller");
+
+      // The owner bundle may have unregistered the xservice already
+      ServiceState serviceState = xservices.remove(controller.getName());
+      if (serviceState != null && serviceState.isUnregistered() == false)
+         serviceState.unregister();
+   }
+
+   /**
+    * Get the owner of an xservice that was not installed through the container of a bundle. 
+    * This is the bundle that loaded the service value or the system bundle.
+    */
+   AbstractBundle getXServiceOwner(ServiceController<?> controller)
+   {
+      Object value = controller.getValue();
+      Bundle bundle = getPlugin(PackageAdminPlugin.class).getBundle(value.getClass());
+      return (bundle != null ? AbstractBundle.assertBundleState(bundle) : getBundleManager().getSystemBundle());
+   }
+
+   static boolean isXServiceName(ServiceName serviceName)
+   {
+      return XSERVICE_BASE_NAME.equals(serviceName.getParent());
+   }
+
    /*
     * The FindHook is called when a target bundle searches the service registry
     * with the getServiceReference or getServiceReferences methods. A registered 
@@ -451,23 +746,17 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
     */
    private List<ServiceState> processFindHooks(AbstractBundle bundle, String clazz, String filterStr, boolean checkAssignable, List<ServiceState> serviceStates)
    {
-      BundleContext context = bundle.getBundleContext();
-      List<ServiceState> hookRefs = getServiceReferencesInternal(bundle, FindHook.class.getName(), null, true);
-      if (hookRefs.isEmpty())
+      // The order in which the find hooks are called is the reverse compareTo ordering of
+      // their ServiceReferences. That is, the service with the highest ranking number must be called first.
+      List<FindHook> hooks = findHooks.getHooks();
+      if (hooks.isEmpty())
          return serviceStates;
 
       // Event and Find Hooks can not be used to hide the services from the framework.
       if (clazz != null && clazz.startsWith(FindHook.class.getPackage().getName()))
          return serviceStates;
 
-      // The order in which the find hooks are called is the reverse compareTo ordering of
-      // their ServiceReferences. That is, the service with the highest ranking number must be called first.
-      List<ServiceReference> sortedHookRefs = new ArrayList<ServiceReference>(hookRefs);
-      Collections.reverse(sortedHookRefs);
-
-      List<FindHook> hooks = new ArrayList<FindHook>();
-      for (ServiceReference hookRef : sortedHookRefs)
-         hooks.add((FindHook)context.getService(hookRef));
+      BundleContext context = bundle.getBundleContext();
 
       Collection<ServiceReference> hookParam = new ArrayList<ServiceReference>();
       for (ServiceState aux : serviceStates)
@@ -476,6 +765,7 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       hookParam = new RemoveOnlyCollection<ServiceReference>(hookParam);
       for (FindHook hook : hooks)
       {
+         long start = (ServiceMetrics.ENABLED ? System.nanoTime() : 0);
          try
          {
             hook.find(context, clazz, filterStr, !checkAssignable, hookParam);
@@ -484,6 +774,8 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
          {
             log.warn("Error while calling FindHook: " + hook, ex);
          }
+         if (ServiceMetrics.ENABLED)
+            metrics.findHook(System.nanoTime() - start);
       }
 
       List<ServiceState> result = new ArrayList<ServiceState>();
@@ -495,4 +787,71 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
 
       return result;
    }
-}
\ No newline at end of file
+
+   /**
+    * The ranking ordered service objects of a hook type.
+    * 
+    * The hooks are obtained through the system bundle when first needed and cached until a hook service
+    * of that type is registered, modified or unregistered. Without registered hooks, getting the hooks
+    * is a single volatile read.
+    */
+   private final class HookCache<T>
+   {
+      private final Class<T> hookClass;
+      // The cached hooks or null if the cache is invalid
+      private volatile List<T> hooks;
+      // The services of the cached hooks
+      private List<ServiceState> hookStates = Collections.emptyList();
+
+      HookCache(Class<T> hookClass)
+      {
+         this.hookClass = hookClass;
+      }
+
+      List<T> getHooks()
+      {
+         List<T> result = hooks;
+         if (result == null)
+            result = loadHooks();
+
+         return result;
+      }
+
+      private synchronized List<T> loadHooks()
+      {
+         if (hooks != null)
+            return hooks;
+
+         AbstractBundle systemBundle = getBundleManager().getSystemBundle();
+         List<ServiceState> states = new ArrayList<ServiceState>();
+         List<T> result = new ArrayList<T>();
+         for (ServiceState serviceState : serviceIndex.getServices(hookClass.getName()))
+         {
+            // A hook that is modified concurrently may be seen twice
+            if (states.contains(serviceState))
+               continue;
+
+            Object hook = getService(systemBundle, serviceState);
+            if (hook != null)
+            {
+               states.add(serviceState);
+               result.add(hookClass.cast(hook));
+            }
+         }
+
+         hookStates = states;
+         hooks = result.isEmpty() ? Collections.<T> emptyList() : Collections.unmodifiableList(result);
+         return hooks;
+      }
+
+      synchronized void invalidate()
+      {
+         AbstractBundle systemBundle = getBundleManager().getSystemBundle();
+         for (ServiceState serviceState : hookStates)
+            ungetService(systemBundle, serviceState);
+
+         hookStates = Collections.emptyList();
+         hooks = null;
+      }
+   }
+}
@@ -23,7 +23,6 @@ package org.jboss.osgi.container.plugin.internal;
 
 import java.util.Collection;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 import org.jboss.logging.Logger;
 import org.jboss.osgi.container.bundle.AbstractBundle;
@@ -49,7 +48,7 @@ public class StartLevelPluginImpl extends AbstractPlugin implements StartLevelPl
    final Logger log = Logger.getLogger(StartLevelPluginImpl.class);
 
    private final FrameworkEventsPlugin eventsPlugin;
-   private Executor executor = Executors.newSingleThreadExecutor();
+   private Executor executor;
    private int initialBundleStartLevel = 1; // Synchronized on this
    private ServiceRegistration registration;
    private int startLevel = 0; // Synchronized on this
@@ -89,7 +88,7 @@ public class StartLevelPluginImpl extends AbstractPlugin implements StartLevelPl
       if (sl > getStartLevel())
       {
          log.info("About to increase start level from " + getStartLevel() + " to " + sl);
-         executor.execute(new Runnable()
+         getExecutor().execute(new Runnable()
          {
             @Override
             public void run()
@@ -104,7 +103,7 @@ public class StartLevelPluginImpl extends AbstractPlugin implements StartLevelPl
       else if (sl < getStartLevel())
       {
          log.info("About to decrease start level from " + getStartLevel() + " to " + sl);
-         executor.execute(new Runnable()
+         getExecutor().execute(new Runnable()
          {
             @Override
             public void run()
@@ -118,6 +117,14 @@ public class StartLevelPluginImpl extends AbstractPlugin implements StartLevelPl
       }
    }
 
+   // Start level changes are processed one at a time in the order they were requested
+   private synchronized Executor getExecutor()
+   {
+      if (executor == null)
+         executor = getBundleManager().getFrameworkState().getExecutorFactory().newSingleThreadExecutor("jbosgi-startlevel");
+      return executor;
+   }
+
    @Override
    public int getBundleStartLevel(Bundle bundle)
    {
@@ -102,6 +102,7 @@ public class SystemPackagesPluginImpl extends AbstractPlugin implements SystemPa
 
          allPackages.add("org.jboss.modules");
          allPackages.add("org.jboss.msc.service");
+         allPackages.add("org.jboss.osgi.container.spi");
          allPackages.add("org.jboss.osgi.deployment.deployer");
          allPackages.add("org.jboss.osgi.deployment.interceptor");
          allPackages.add("org.jboss.osgi.modules");
@@ -0,0 +1,154 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.plugin.internal;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executor;
+
+import org.jboss.msc.service.AbstractServiceListener;
+import org.jboss.msc.service.BatchBuilder;
+import org.jboss.msc.service.ServiceContainer;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.ServiceNotFoundException;
+import org.jboss.osgi.container.bundle.AbstractBundle;
+
+/**
+ * A view of the service container that registers the xservices installed through it with the service manager.
+ * 
+ * Every batch gets a listener that registers an xservice while its controller is up. 
+ * Service lookups therefore only read the registry index and never query the container.
+ *
+ * @since 18-Oct-2026
+ */
+final class XServiceContainer implements ServiceContainer
+{
+   private final ServiceContainer delegate;
+   private final XServiceListener listener;
+
+   /**
+    * @param bundleState The bundle that owns the xservices or null if the owner is derived from the service value 
+    */
+   XServiceContainer(ServiceContainer delegate, ServiceManagerPluginImpl serviceManager, AbstractBundle bundleState)
+   {
+      this.delegate = delegate;
+      this.listener = new XServiceListener(serviceManager, bundleState);
+   }
+
+   @Override
+   public BatchBuilder batchBuilder()
+   {
+      BatchBuilder batchBuilder = delegate.batchBuilder();
+      batchBuilder.addListener(listener);
+      return batchBuilder;
+   }
+
+   @Override
+   public void setExecutor(Executor executor)
+   {
+      delegate.setExecutor(executor);
+   }
+
+   @Override
+   public void shutdown()
+   {
+      delegate.shutdown();
+   }
+
+   @Override
+   public ServiceController<?> getRequiredService(ServiceName serviceName) throws ServiceNotFoundException
+   {
+      return delegate.getRequiredService(serviceName);
+   }
+
+   @Override
+   public ServiceController<?> getService(ServiceName serviceName)
+   {
+      return delegate.getService(serviceName);
+   }
+
+   @Override
+   public void dumpServices()
+   {
+      delegate.dumpServices();
+   }
+
+   @Override
+   public void dumpServices(PrintStream out)
+   {
+      delegate.dumpServices(out);
+   }
+
+   /**
+    * Registers the xservices while their controllers are up.
+    */
+   static final class XServiceListener extends AbstractServiceListener<Object>
+   {
+      private final ServiceManagerPluginImpl serviceManager;
+      private final AbstractBundle bundleState;
+
+      XServiceListener(ServiceManagerPluginImpl serviceManager, AbstractBundle bundleState)
+      {
+         this.serviceManager = serviceManager;
+         this.bundleState = bundleState;
+      }
+
+      @Override
+      public void listenerAdded(ServiceController<? extends Object> controller)
+      {
+         // The controller may already be up when the listener is added
+         if (controller.getState() == State.UP)
+            registerXService(controller);
+      }
+
+      @Override
+      public void serviceStarted(ServiceController<? extends Object> controller)
+      {
+         registerXService(controller);
+      }
+
+      @Override
+      public void serviceStopping(ServiceController<? extends Object> controller)
+      {
+         serviceManager.unregisterXService(controller);
+      }
+
+      @Override
+      public void serviceRemoved(ServiceController<? extends Object> controller)
+      {
+         serviceManager.unregisterXService(controller);
+      }
+
+      private void registerXService(ServiceController<? extends Object> controller)
+      {
+         if (ServiceManagerPluginImpl.isXServiceName(controller.getName()) == false)
+            return;
+
+         AbstractBundle owner = bundleState;
+         if (owner == null)
+            owner = serviceManager.getXServiceOwner(controller);
+
+         serviceManager.registerXService(owner, controller);
+      }
+   }
+}
@@ -0,0 +1,57 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.spi;
+
+import java.util.List;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * A framework service that registers a number of services at once.
+ *
+ * The services are installed in a single batch and the registry is updated once. The
+ * {@link org.osgi.framework.ServiceEvent#REGISTERED} events are fired afterwards in the order of the descriptors.
+ * This is considerably cheaper than calling {@link BundleContext#registerService(String[], Object, java.util.Dictionary)}
+ * for every service, when a bundle registers many services on activation.
+ *
+ * <pre>
+ * ServiceReference sref = context.getServiceReference(BatchServiceRegistry.class.getName());
+ * BatchServiceRegistry registry = (BatchServiceRegistry)context.getService(sref);
+ * List&lt;ServiceRegistration&gt; registrations = registry.registerServices(context, descriptors);
+ * </pre>
+ *
+ * @since 18-Oct-2026
+ */
+public interface BatchServiceRegistry
+{
+   /**
+    * Register the described services on behalf of the bundle of the given context.
+    *
+    * @param context The context of the registering bundle
+    * @param descriptors The services to register
+    * @return The service registrations in the order of the descriptors
+    * @throws IllegalStateException If the context is no longer valid or the services cannot be installed.
+    *         None of the services is registered then.
+    */
+   List<ServiceRegistration> registerServices(BundleContext context, List<ServiceDescriptor> descriptors);
+}
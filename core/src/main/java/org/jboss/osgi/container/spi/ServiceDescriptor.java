@@ -0,0 +1,80 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.spi;
+
+import java.util.Dictionary;
+
+/**
+ * Describes a service that is registered through the {@link BatchServiceRegistry}.
+ *
+ * The arguments have the same meaning as those of {@link org.osgi.framework.BundleContext#registerService(String[], Object, Dictionary)}.
+ *
+ * @since 18-Oct-2026
+ */
+public final class ServiceDescriptor
+{
+   private final String[] clazzes;
+   private final Object service;
+   @SuppressWarnings("rawtypes")
+   private final Dictionary properties;
+
+   /**
+    * Describe a service that is registered under a single class name
+    */
+   @SuppressWarnings("rawtypes")
+   public ServiceDescriptor(String clazz, Object service, Dictionary properties)
+   {
+      this(new String[] { clazz }, service, properties);
+   }
+
+   /**
+    * Describe a service that is registered under the given class names
+    */
+   @SuppressWarnings("rawtypes")
+   public ServiceDescriptor(String[] clazzes, Object service, Dictionary properties)
+   {
+      if (clazzes == null || clazzes.length == 0)
+         throw new IllegalArgumentException("Null service classes");
+      if (service == null)
+         throw new IllegalArgumentException("Null service");
+
+      this.clazzes = clazzes;
+      this.service = service;
+      this.properties = properties;
+   }
+
+   public String[] getClassNames()
+   {
+      return clazzes;
+   }
+
+   public Object getService()
+   {
+      return service;
+   }
+
+   @SuppressWarnings("rawtypes")
+   public Dictionary getProperties()
+   {
+      return properties;
+   }
+}
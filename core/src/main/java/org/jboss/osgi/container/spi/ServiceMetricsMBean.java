@@ -0,0 +1,118 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.spi;
+
+import java.util.Map;
+
+/**
+ * The management interface of the service registry metrics.
+ *
+ * The metrics are only recorded when the virtual machine is started with the system property
+ * <code>-Dorg.jboss.osgi.service.metrics=true</code>. The MBean is then registered with the platform
+ * MBean server under the name <code>jboss.osgi:service=ServiceMetrics</code>.
+ *
+ * @since 18-Oct-2026
+ */
+public interface ServiceMetricsMBean
+{
+   /**
+    * True if the metrics are recorded
+    */
+   boolean isEnabled();
+
+   /**
+    * The number of service lookups
+    */
+   long getLookupCount();
+
+   /**
+    * The number of service lookups by class name. Lookups without a class name are counted under <code>*</code>.
+    */
+   Map<String, Long> getLookupsPerClass();
+
+   /**
+    * The number of registry candidates that were scanned by the service lookups
+    */
+   long getCandidatesScanned();
+
+   /**
+    * The number of services that were returned by the service lookups, before the find hooks were called
+    */
+   long getCandidatesReturned();
+
+   /**
+    * The number of filter evaluations of the service lookups
+    */
+   long getFilterEvaluations();
+
+   /**
+    * The number of FindHook invocations
+    */
+   long getFindHookInvocations();
+
+   /**
+    * The total time spent in FindHook invocations in nanoseconds
+    */
+   long getFindHookTime();
+
+   /**
+    * The number of EventHook invocations
+    */
+   long getEventHookInvocations();
+
+   /**
+    * The total time spent in EventHook invocations in nanoseconds
+    */
+   long getEventHookTime();
+
+   /**
+    * The number of fired service events
+    */
+   long getServiceEvents();
+
+   /**
+    * The number of service listeners that were examined for the fired service events.
+    * Divided by the number of service events this gives the candidates examined per event.
+    */
+   long getListenerCandidates();
+
+   /**
+    * The number of ServiceFactory.getService calls
+    */
+   long getFactoryCalls();
+
+   /**
+    * The ServiceFactory.getService latency histogram.
+    * The buckets count the calls that took less than 1us, 10us, 100us, 1ms, 10ms, 100ms and longer. 
+    */
+   long[] getFactoryLatencyHistogram();
+
+   /**
+    * Get an immutable snapshot of all metrics
+    */
+   ServiceMetricsSnapshot getSnapshot();
+
+   /**
+    * Reset all metrics to zero
+    */
+   void reset();
+}
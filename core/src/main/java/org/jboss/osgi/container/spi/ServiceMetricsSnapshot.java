@@ -0,0 +1,151 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.spi;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the service registry metrics.
+ *
+ * @see ServiceMetricsMBean
+ * @since 18-Oct-2026
+ */
+public final class ServiceMetricsSnapshot implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   private final long lookupCount;
+   private final Map<String, Long> lookupsPerClass;
+   private final long candidatesScanned;
+   private final long candidatesReturned;
+   private final long filterEvaluations;
+   private final long findHookInvocations;
+   private final long findHookTime;
+   private final long eventHookInvocations;
+   private final long eventHookTime;
+   private final long serviceEvents;
+   private final long listenerCandidates;
+   private final long factoryCalls;
+   private final long[] factoryLatencyHistogram;
+
+   public ServiceMetricsSnapshot(long lookupCount, Map<String, Long> lookupsPerClass, long candidatesScanned, long candidatesReturned, long filterEvaluations,
+         long findHookInvocations, long findHookTime, long eventHookInvocations, long eventHookTime, long serviceEvents, long listenerCandidates,
+         long factoryCalls, long[] factoryLatencyHistogram)
+   {
+      if (lookupsPerClass == null)
+         throw new IllegalArgumentException("Null lookupsPerClass");
+      if (factoryLatencyHistogram == null)
+         throw new IllegalArgumentException("Null factoryLatencyHistogram");
+
+      this.lookupCount = lookupCount;
+      this.lookupsPerClass = Collections.unmodifiableMap(new HashMap<String, Long>(lookupsPerClass));
+      this.candidatesScanned = candidatesScanned;
+      this.candidatesReturned = candidatesReturned;
+      this.filterEvaluations = filterEvaluations;
+      this.findHookInvocations = findHookInvocations;
+      this.findHookTime = findHookTime;
+      this.eventHookInvocations = eventHookInvocations;
+      this.eventHookTime = eventHookTime;
+      this.serviceEvents = serviceEvents;
+      this.listenerCandidates = listenerCandidates;
+      this.factoryCalls = factoryCalls;
+      this.factoryLatencyHistogram = factoryLatencyHistogram.clone();
+   }
+
+   public long getLookupCount()
+   {
+      return lookupCount;
+   }
+
+   public Map<String, Long> getLookupsPerClass()
+   {
+      return lookupsPerClass;
+   }
+
+   public long getCandidatesScanned()
+   {
+      return candidatesScanned;
+   }
+
+   public long getCandidatesReturned()
+   {
+      return candidatesReturned;
+   }
+
+   public long getFilterEvaluations()
+   {
+      return filterEvaluations;
+   }
+
+   public long getFindHookInvocations()
+   {
+      return findHookInvocations;
+   }
+
+   public long getFindHookTime()
+   {
+      return findHookTime;
+   }
+
+   public long getEventHookInvocations()
+   {
+      return eventHookInvocations;
+   }
+
+   public long getEventHookTime()
+   {
+      return eventHookTime;
+   }
+
+   public long getServiceEvents()
+   {
+      return serviceEvents;
+   }
+
+   public long getListenerCandidates()
+   {
+      return listenerCandidates;
+   }
+
+   public long getFactoryCalls()
+   {
+      return factoryCalls;
+   }
+
+   public long[] getFactoryLatencyHistogram()
+   {
+      return factoryLatencyHistogram.clone();
+   }
+
+   @Override
+   public String toString()
+   {
+      return "ServiceMetrics[lookups=" + lookupCount + ",scanned=" + candidatesScanned + ",returned=" + candidatesReturned + ",filters=" + filterEvaluations
+            + ",findHooks=" + findHookInvocations + "/" + findHookTime + "ns,eventHooks=" + eventHookInvocations + "/" + eventHookTime + "ns,serviceEvents=" + serviceEvents
+            + ",listenerCandidates=" + listenerCandidates + ",factoryCalls="
+            + factoryCalls + ",factoryLatency=" + Arrays.toString(factoryLatencyHistogram) + "]";
+   }
+}
@@ -0,0 +1,878 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+
+/**
+ * A {@link Filter} that is compiled into specialized matchers.
+ *
+ * The filter string is validated and normalized by {@link FrameworkUtil#createFilter(String)}.
+ * It is then compiled into a tree of matchers that use interned lower case keys and
+ * operands that are pre-parsed for the common property types. Property values of a type that
+ * the compiled matchers do not handle are evaluated by the standard filter implementation.
+ *
+ * Compiled filters are immutable and cached by their filter string.
+ *
+ * @since 18-Oct-2026
+ */
+public final class CompiledFilter implements Filter
+{
+   // The maximum number of cached filters
+   private static final int MAX_CACHE_SIZE = 2048;
+   // The filter cache
+   private static final Map<String, CompiledFilter> filterCache = new ConcurrentHashMap<String, CompiledFilter>();
+
+   // The tri-state match results
+   static final int FALSE = 0;
+   static final int TRUE = 1;
+   static final int UNKNOWN = 2;
+
+   // The filter operations
+   static final int EQUAL = 1;
+   static final int APPROX = 2;
+   static final int GREATER = 3;
+   static final int LESS = 4;
+
+   // The standard filter implementation
+   private final Filter delegate;
+   // The normalized filter string
+   private final String filterString;
+   // The root matcher, which is null if the filter could not be compiled
+   private final Node root;
+
+   private CompiledFilter(Filter delegate)
+   {
+      this.delegate = delegate;
+      this.filterString = delegate.toString();
+
+      Node node;
+      try
+      {
+         node = new Parser(filterString).parse();
+      }
+      catch (RuntimeException ex)
+      {
+         // Use the standard filter implementation
+         node = null;
+      }
+      this.root = node;
+   }
+
+   /**
+    * Get the compiled filter for the given filter string.
+    * @throws InvalidSyntaxException If the filter string contains an invalid filter
+    */
+   public static CompiledFilter compile(String filterStr) throws InvalidSyntaxException
+   {
+      if (filterStr == null)
+         throw new IllegalArgumentException("Null filter");
+
+      CompiledFilter result = filterCache.get(filterStr);
+      if (result == null)
+      {
+         result = new CompiledFilter(FrameworkUtil.createFilter(filterStr));
+
+         // Keep the cache bounded
+         if (filterCache.size() >= MAX_CACHE_SIZE)
+            filterCache.clear();
+
+         filterCache.put(filterStr, result);
+      }
+      return result;
+   }
+
+   /**
+    * Get the values of the given key, of which every matching service must have at least one.
+    * For example, (|(objectClass=A)(&(objectClass=B)(foo=bar))) constrains objectClass to A or B.
+    *
+    * @return The set of values or null if the filter does not constrain the key to a finite set of values
+    */
+   public Set<String> getRequiredValues(String key)
+   {
+      if (key == null)
+         throw new IllegalArgumentException("Null key");
+
+      Set<String> result = getRequiredValues(root, key.toLowerCase(Locale.ENGLISH));
+      return result != null ? Collections.unmodifiableSet(result) : null;
+   }
+
+   private static Set<String> getRequiredValues(Node node, String key)
+   {
+      if (node instanceof Compare)
+      {
+         Compare cmp = (Compare)node;
+         if (cmp.operation == EQUAL && cmp.key.equals(key))
+            return new HashSet<String>(Collections.singleton(cmp.operand));
+      }
+      else if (node instanceof And)
+      {
+         for (Node child : ((And)node).children)
+         {
+            Set<String> result = getRequiredValues(child, key);
+            if (result != null)
+               return result;
+         }
+      }
+      else if (node instanceof Or)
+      {
+         Set<String> result = new HashSet<String>();
+         for (Node child : ((Or)node).children)
+         {
+            Set<String> aux = getRequiredValues(child, key);
+            if (aux == null)
+               return null;
+
+            result.addAll(aux);
+         }
+         return result;
+      }
+      return null;
+   }
+
+   @Override
+   public boolean match(ServiceReference reference)
+   {
+      if (reference == null)
+         return false;
+
+      int result = (root != null ? root.match(new ReferenceLookup(reference)) : UNKNOWN);
+      if (result == UNKNOWN)
+         return delegate.match(reference);
+
+      return result == TRUE;
+   }
+
+   @Override
+   @SuppressWarnings("rawtypes")
+   public boolean match(Dictionary dictionary)
+   {
+      // Immutable service properties are matched by the compiled tree without copying them
+      if (root != null && dictionary instanceof ServiceProperties)
+      {
+         int result = root.match((ServiceProperties)dictionary);
+         if (result != UNKNOWN)
+            return result == TRUE;
+      }
+      return delegate.match(dictionary);
+   }
+
+   @Override
+   @SuppressWarnings("rawtypes")
+   public boolean matchCase(Dictionary dictionary)
+   {
+      return delegate.matchCase(dictionary);
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return filterString.hashCode();
+   }
+
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (obj instanceof Filter == false)
+         return false;
+      if (obj == this)
+         return true;
+
+      return filterString.equals(obj.toString());
+   }
+
+   @Override
+   public String toString()
+   {
+      return filterString;
+   }
+
+   /**
+    * A node in the compiled filter tree
+    */
+   static abstract class Node
+   {
+      abstract int match(PropertyLookup properties);
+   }
+
+   static final class And extends Node
+   {
+      final Node[] children;
+
+      And(Node[] children)
+      {
+         this.children = children;
+      }
+
+      @Override
+      int match(PropertyLookup properties)
+      {
+         int result = TRUE;
+         for (Node child : children)
+         {
+            int aux = child.match(properties);
+            if (aux == FALSE)
+               return FALSE;
+            if (aux == UNKNOWN)
+               result = UNKNOWN;
+         }
+         return result;
+      }
+   }
+
+   static final class Or extends Node
+   {
+      final Node[] children;
+
+      Or(Node[] children)
+      {
+         this.children = children;
+      }
+
+      @Override
+      int match(PropertyLookup properties)
+      {
+         int result = FALSE;
+         for (Node child : children)
+         {
+            int aux = child.match(properties);
+            if (aux == TRUE)
+               return TRUE;
+            if (aux == UNKNOWN)
+               result = UNKNOWN;
+         }
+         return result;
+      }
+   }
+
+   static final class Not extends Node
+   {
+      final Node child;
+
+      Not(Node child)
+      {
+         this.child = child;
+      }
+
+      @Override
+      int match(PropertyLookup properties)
+      {
+         int aux = child.match(properties);
+         if (aux == UNKNOWN)
+            return UNKNOWN;
+
+         return aux == TRUE ? FALSE : TRUE;
+      }
+   }
+
+   /**
+    * The base of all nodes that match a single property
+    */
+   static abstract class Item extends Node
+   {
+      // The interned lower case key
+      final String key;
+
+      Item(String attr)
+      {
+         this.key = attr.toLowerCase(Locale.ENGLISH).intern();
+      }
+
+      @Override
+      int match(PropertyLookup properties)
+      {
+         return matchValue(properties.getProperty(key));
+      }
+
+      int matchValue(Object value)
+      {
+         if (value == null)
+            return FALSE;
+
+         if (value instanceof String)
+            return matchString((String)value) ? TRUE : FALSE;
+
+         if (value instanceof String[])
+         {
+            for (String aux : (String[])value)
+            {
+               if (aux != null && matchString(aux))
+                  return TRUE;
+            }
+            return FALSE;
+         }
+
+         if (value instanceof Object[])
+            return matchAny(Arrays.asList((Object[])value));
+
+         if (value instanceof Collection<?>)
+            return matchAny((Collection<?>)value);
+
+         return matchObject(value);
+      }
+
+      private int matchAny(Collection<?> values)
+      {
+         int result = FALSE;
+         for (Object aux : values)
+         {
+            int match = matchValue(aux);
+            if (match == TRUE)
+               return TRUE;
+            if (match == UNKNOWN)
+               result = UNKNOWN;
+         }
+         return result;
+      }
+
+      abstract boolean matchString(String value);
+
+      abstract int matchObject(Object value);
+   }
+
+   static final class Present extends Item
+   {
+      Present(String attr)
+      {
+         super(attr);
+      }
+
+      @Override
+      int match(PropertyLookup properties)
+      {
+         return properties.getProperty(key) != null ? TRUE : FALSE;
+      }
+
+      @Override
+      boolean matchString(String value)
+      {
+         return true;
+      }
+
+      @Override
+      int matchObject(Object value)
+      {
+         return TRUE;
+      }
+   }
+
+   static final class Substring extends Item
+   {
+      // The substrings, where null stands for a wildcard
+      final String[] substrings;
+
+      Substring(String attr, String[] substrings)
+      {
+         super(attr);
+         this.substrings = substrings;
+      }
+
+      @Override
+      boolean matchString(String string)
+      {
+         int pos = 0;
+         for (int i = 0, size = substrings.length; i < size; i++)
+         {
+            String substr = substrings[i];
+            if (i + 1 < size)
+            {
+               if (substr == null)
+               {
+                  String substr2 = substrings[i + 1];
+                  if (substr2 == null)
+                     continue;
+
+                  int index = string.indexOf(substr2, pos);
+                  if (index == -1)
+                     return false;
+
+                  pos = index + substr2.length();
+                  if (i + 2 < size)
+                     i++;
+               }
+               else
+               {
+                  int len = substr.length();
+                  if (string.regionMatches(pos, substr, 0, len) == false)
+                     return false;
+
+                  pos += len;
+               }
+            }
+            else
+            {
+               if (substr == null)
+                  return true;
+
+               return string.endsWith(substr);
+            }
+         }
+         return true;
+      }
+
+      @Override
+      int matchObject(Object value)
+      {
+         return UNKNOWN;
+      }
+   }
+
+   static final class Compare extends Item
+   {
+      final int operation;
+      final String operand;
+
+      // The pre-parsed operands
+      private final String approxOperand;
+      private final Long longOperand;
+      private final Double doubleOperand;
+      private final Float floatOperand;
+      private final Boolean booleanOperand;
+      private final Version versionOperand;
+
+      Compare(String attr, int operation, String operand)
+      {
+         super(attr);
+         this.operation = operation;
+         this.operand = operand;
+
+         String trimmed = operand.trim();
+         this.approxOperand = (operation == APPROX ? approxString(operand) : null);
+         this.longOperand = parseLong(trimmed);
+         this.doubleOperand = parseDouble(trimmed);
+         this.floatOperand = parseFloat(trimmed);
+         this.booleanOperand = Boolean.valueOf(trimmed);
+         this.versionOperand = parseVersion(trimmed);
+      }
+
+      @Override
+      boolean matchString(String value)
+      {
+         switch (operation)
+         {
+            case EQUAL:
+               return value.equals(operand);
+            case APPROX:
+               return approxString(value).equalsIgnoreCase(approxOperand);
+            case GREATER:
+               return value.compareTo(operand) >= 0;
+            case LESS:
+               return value.compareTo(operand) <= 0;
+         }
+         return false;
+      }
+
+      @Override
+      int matchObject(Object value)
+      {
+         if (value instanceof Integer)
+            return matchLong(((Integer)value).longValue(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+         if (value instanceof Long)
+            return matchLong(((Long)value).longValue(), Long.MIN_VALUE, Long.MAX_VALUE);
+         if (value instanceof Short)
+            return matchLong(((Short)value).longValue(), Short.MIN_VALUE, Short.MAX_VALUE);
+         if (value instanceof Byte)
+            return matchLong(((Byte)value).longValue(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+
+         if (value instanceof Double)
+         {
+            if (doubleOperand == null)
+               return FALSE;
+
+            return matchComparison(Double.compare(((Double)value).doubleValue(), doubleOperand.doubleValue()));
+         }
+
+         if (value instanceof Float)
+         {
+            if (floatOperand == null)
+               return FALSE;
+
+            return matchComparison(Float.compare(((Float)value).floatValue(), floatOperand.floatValue()));
+         }
+
+         if (value instanceof Boolean)
+            return value.equals(booleanOperand) ? TRUE : FALSE;
+
+         if (value instanceof Version)
+         {
+            if (versionOperand == null)
+               return FALSE;
+
+            return matchComparison(((Version)value).compareTo(versionOperand));
+         }
+
+         // Let the standard filter implementation handle all other types
+         return UNKNOWN;
+      }
+
+      private int matchLong(long value, long min, long max)
+      {
+         // The operand must be parsable as the type of the property value
+         if (longOperand == null)
+            return FALSE;
+
+         long other = longOperand.longValue();
+         if (other < min || other > max)
+            return FALSE;
+
+         return matchComparison(value < other ? -1 : (value == other ? 0 : 1));
+      }
+
+      private int matchComparison(int comparison)
+      {
+         switch (operation)
+         {
+            case EQUAL:
+            case APPROX:
+               return comparison == 0 ? TRUE : FALSE;
+            case GREATER:
+               return comparison >= 0 ? TRUE : FALSE;
+            case LESS:
+               return comparison <= 0 ? TRUE : FALSE;
+         }
+         return FALSE;
+      }
+
+      private static String approxString(String input)
+      {
+         StringBuilder builder = new StringBuilder(input.length());
+         for (int i = 0; i < input.length(); i++)
+         {
+            char c = input.charAt(i);
+            if (Character.isWhitespace(c) == false)
+               builder.append(c);
+         }
+         return builder.toString();
+      }
+
+      private static Long parseLong(String value)
+      {
+         try
+         {
+            return Long.valueOf(value);
+         }
+         catch (NumberFormatException ex)
+         {
+            return null;
+         }
+      }
+
+      private static Double parseDouble(String value)
+      {
+         try
+         {
+            return Double.valueOf(value);
+         }
+         catch (NumberFormatException ex)
+         {
+            return null;
+         }
+      }
+
+      private static Float parseFloat(String value)
+      {
+         try
+         {
+            return Float.valueOf(value);
+         }
+         catch (NumberFormatException ex)
+         {
+            return null;
+         }
+      }
+
+      private static Version parseVersion(String value)
+      {
+         if (value.length() == 0)
+            return null;
+
+         try
+         {
+            return new Version(value);
+         }
+         catch (IllegalArgumentException ex)
+         {
+            return null;
+         }
+      }
+   }
+
+   /**
+    * Parses the normalized filter string into a tree of nodes.
+    * The grammar and whitespace handling follows the standard filter implementation.
+    *
+    * @throws IllegalArgumentException if the filter cannot be compiled
+    */
+   static final class Parser
+   {
+      private final char[] chars;
+      private int pos;
+
+      Parser(String filterString)
+      {
+         this.chars = filterString.toCharArray();
+      }
+
+      Node parse()
+      {
+         Node node = parseFilter();
+         if (pos != chars.length)
+            throw new IllegalArgumentException("Extraneous trailing characters");
+
+         return node;
+      }
+
+      private Node parseFilter()
+      {
+         skipWhiteSpace();
+         expect('(');
+         Node node = parseFilterComp();
+         skipWhiteSpace();
+         expect(')');
+         skipWhiteSpace();
+         return node;
+      }
+
+      private Node parseFilterComp()
+      {
+         skipWhiteSpace();
+         switch (current())
+         {
+            case '&':
+               pos++;
+               return new And(parseFilterList());
+            case '|':
+               pos++;
+               return new Or(parseFilterList());
+            case '!':
+               pos++;
+               return new Not(parseFilter());
+         }
+         return parseItem();
+      }
+
+      private Node[] parseFilterList()
+      {
+         List<Node> nodes = new ArrayList<Node>();
+         skipWhiteSpace();
+         while (current() == '(')
+         {
+            nodes.add(parseFilter());
+            skipWhiteSpace();
+         }
+
+         if (nodes.isEmpty())
+            throw new IllegalArgumentException("Missing filter list");
+
+         return nodes.toArray(new Node[nodes.size()]);
+      }
+
+      private Node parseItem()
+      {
+         String attr = parseAttr();
+         skipWhiteSpace();
+         switch (current())
+         {
+            case '~':
+               pos++;
+               expect('=');
+               return new Compare(attr, APPROX, parseValue());
+            case '>':
+               pos++;
+               expect('=');
+               return new Compare(attr, GREATER, parseValue());
+            case '<':
+               pos++;
+               expect('=');
+               return new Compare(attr, LESS, parseValue());
+            case '=':
+            {
+               pos++;
+               if (current() == '*' && pos + 1 < chars.length && chars[pos + 1] == ')')
+               {
+                  pos++;
+                  return new Present(attr);
+               }
+
+               List<String> substrings = parseSubstring();
+               if (substrings.isEmpty())
+                  return new Compare(attr, EQUAL, "");
+
+               if (substrings.size() == 1 && substrings.get(0) != null)
+                  return new Compare(attr, EQUAL, substrings.get(0));
+
+               return new Substring(attr, substrings.toArray(new String[substrings.size()]));
+            }
+         }
+         throw new IllegalArgumentException("Invalid operator");
+      }
+
+      private String parseAttr()
+      {
+         skipWhiteSpace();
+         int begin = pos;
+         int end = pos;
+         char c = current();
+         while (c != '~' && c != '<' && c != '>' && c != '=' && c != '(' && c != ')')
+         {
+            pos++;
+            if (Character.isWhitespace(c) == false)
+               end = pos;
+
+            c = current();
+         }
+
+         if (end == begin)
+            throw new IllegalArgumentException("Missing attribute");
+
+         return new String(chars, begin, end - begin);
+      }
+
+      private String parseValue()
+      {
+         StringBuilder builder = new StringBuilder();
+         while (true)
+         {
+            char c = current();
+            switch (c)
+            {
+               case ')':
+                  return builder.toString();
+               case '(':
+                  throw new IllegalArgumentException("Invalid value");
+               case '\\':
+                  // Append the escaped character
+                  pos++;
+                  builder.append(current());
+                  pos++;
+                  break;
+               default:
+                  pos++;
+                  builder.append(c);
+            }
+         }
+      }
+
+      private List<String> parseSubstring()
+      {
+         List<String> substrings = new ArrayList<String>();
+         StringBuilder builder = new StringBuilder();
+         while (true)
+         {
+            char c = current();
+            switch (c)
+            {
+               case ')':
+                  if (builder.length() > 0)
+                     substrings.add(builder.toString());
+                  return substrings;
+               case '(':
+                  throw new IllegalArgumentException("Invalid value");
+               case '*':
+                  if (builder.length() > 0)
+                     substrings.add(builder.toString());
+                  builder.setLength(0);
+                  substrings.add(null);
+                  pos++;
+                  break;
+               case '\\':
+                  // Append the escaped character
+                  pos++;
+                  builder.append(current());
+                  pos++;
+                  break;
+               default:
+                  pos++;
+                  builder.append(c);
+            }
+         }
+      }
+
+      private char current()
+      {
+         if (pos >= chars.length)
+            throw new IllegalArgumentException("Unexpected end of filter");
+
+         return chars[pos];
+      }
+
+      private void expect(char c)
+      {
+         if (current() != c)
+            throw new IllegalArgumentException("Expected: " + c);
+
+         pos++;
+      }
+
+      private void skipWhiteSpace()
+      {
+         while (pos < chars.length && Character.isWhitespace(chars[pos]))
+            pos++;
+      }
+   }
+
+   /**
+    * The properties that the compiled tree is matched against
+    */
+   interface PropertyLookup
+   {
+      /**
+       * Get a property value by an interned lower case key
+       */
+      Object getProperty(String key);
+   }
+
+   /**
+    * Looks up the properties of a service reference
+    */
+   static final class ReferenceLookup implements PropertyLookup
+   {
+      private final ServiceReference reference;
+
+      ReferenceLookup(ServiceReference reference)
+      {
+         this.reference = reference;
+      }
+
+      @Override
+      public Object getProperty(String key)
+      {
+         return reference.getProperty(key);
+      }
+   }
+}
@@ -0,0 +1,168 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Creates the executors that are used by the framework.
+ *
+ * By default the executors use platform threads. With virtual threads enabled and a virtual machine
+ * that supports them (JDK 21), the executors run their tasks on virtual threads instead. Virtual threads
+ * are accessed reflectively, so that the framework still runs on older virtual machines.
+ *
+ * @since 18-Oct-2026
+ */
+public final class ExecutorFactory
+{
+   // Provide logging
+   private static final Logger log = Logger.getLogger(ExecutorFactory.class);
+
+   /** The framework property that enables virtual threads */
+   public static final String PROP_VIRTUAL_THREADS = "org.jboss.osgi.virtual.threads";
+
+   // The time that an idle platform thread is kept alive
+   private static final long KEEP_ALIVE_SECONDS = 60L;
+
+   private final boolean virtualThreads;
+
+   /**
+    * Create an executor factory
+    * @param virtualThreads True if virtual threads should be used if available
+    */
+   public ExecutorFactory(boolean virtualThreads)
+   {
+      if (virtualThreads && isVirtualThreadSupported() == false)
+      {
+         log.info("Virtual threads not supported by this virtual machine, using platform threads");
+         virtualThreads = false;
+      }
+      this.virtualThreads = virtualThreads;
+   }
+
+   /**
+    * True if the executors of this factory use virtual threads
+    */
+   public boolean isVirtualThreads()
+   {
+      return virtualThreads;
+   }
+
+   /**
+    * Create an executor that runs the tasks one at a time in submission order
+    * @param name The name prefix of the executor threads
+    */
+   public ExecutorService newSingleThreadExecutor(String name)
+   {
+      if (virtualThreads)
+         return Executors.newSingleThreadExecutor(newVirtualThreadFactory(name));
+
+      return newPlatformThreadPool(name, 1, false);
+   }
+
+   /**
+    * Create an executor that runs the tasks on at most the given number of platform threads,
+    * or on a new virtual thread per task
+    *
+    * @param name The name prefix of the executor threads
+    * @param poolSize The max number of platform threads
+    * @param daemon True if the platform threads should not prevent the virtual machine from exiting
+    */
+   public ExecutorService newThreadPool(String name, int poolSize, boolean daemon)
+   {
+      if (virtualThreads)
+         return newVirtualThreadPerTaskExecutor(name);
+
+      return newPlatformThreadPool(name, poolSize, daemon);
+   }
+
+   private ExecutorService newPlatformThreadPool(final String name, int poolSize, final boolean daemon)
+   {
+      ThreadFactory threadFactory = new ThreadFactory()
+      {
+         private AtomicInteger count = new AtomicInteger();
+
+         public Thread newThread(Runnable run)
+         {
+            Thread thread = new Thread(run, name + "-" + count.incrementAndGet());
+            thread.setDaemon(daemon);
+            return thread;
+         }
+      };
+
+      // Idle threads terminate, so that an unused executor does not hold on to its threads
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+   }
+
+   private static boolean isVirtualThreadSupported()
+   {
+      try
+      {
+         // Virtual threads are a preview feature before JDK 21, in which case creating the factory fails
+         newVirtualThreadFactory("jbosgi-probe");
+         return true;
+      }
+      catch (RuntimeException ex)
+      {
+         return false;
+      }
+   }
+
+   private static ThreadFactory newVirtualThreadFactory(String name)
+   {
+      try
+      {
+         Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+         Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+         builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+         return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+      }
+      catch (Exception ex)
+      {
+         throw new IllegalStateException("Cannot create virtual thread factory", ex);
+      }
+   }
+
+   private static ExecutorService newVirtualThreadPerTaskExecutor(String name)
+   {
+      try
+      {
+         Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+         return (ExecutorService)method.invoke(null, newVirtualThreadFactory(name));
+      }
+      catch (Exception ex)
+      {
+         throw new IllegalStateException("Cannot create virtual thread executor", ex);
+      }
+   }
+}
@@ -0,0 +1,294 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jboss.osgi.container.spi.ServiceMetricsMBean;
+import org.jboss.osgi.container.spi.ServiceMetricsSnapshot;
+
+/**
+ * Records the service registry metrics.
+ *
+ * Recording is switched on for the whole virtual machine by a system property. The switch is a static
+ * final constant, so that the guarded recording calls are removed by the JIT compiler when it is off.
+ * Callers that need to measure time check {@link #ENABLED} before reading the clock. The counters are
+ * {@link LongAdder}s, which keep concurrent lookups from contending on a single memory location.
+ *
+ * @since 18-Oct-2026
+ */
+public final class ServiceMetrics implements ServiceMetricsMBean
+{
+   /** The system property that enables the metrics */
+   public static final String PROP_SERVICE_METRICS = "org.jboss.osgi.service.metrics";
+
+   /** True if the metrics are recorded */
+   public static final boolean ENABLED = Boolean.getBoolean(PROP_SERVICE_METRICS);
+
+   // The key of lookups without a class name
+   static final String ANY_CLASS = "*";
+   // The key of lookups beyond the max number of tracked class names
+   static final String OTHER_CLASSES = "...";
+   // The max number of tracked class names
+   static final int MAX_CLASSES = 1024;
+
+   // The upper bounds of the factory latency buckets in nanoseconds
+   private static final long[] LATENCY_BOUNDS = new long[] { 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L };
+
+   private final LongAdder lookupCount = new LongAdder();
+   private final ConcurrentMap<String, LongAdder> lookupsPerClass = new ConcurrentHashMap<String, LongAdder>();
+   private final LongAdder candidatesScanned = new LongAdder();
+   private final LongAdder candidatesReturned = new LongAdder();
+   private final LongAdder filterEvaluations = new LongAdder();
+   private final LongAdder findHookInvocations = new LongAdder();
+   private final LongAdder findHookTime = new LongAdder();
+   private final LongAdder eventHookInvocations = new LongAdder();
+   private final LongAdder eventHookTime = new LongAdder();
+   private final LongAdder serviceEvents = new LongAdder();
+   private final LongAdder listenerCandidates = new LongAdder();
+   private final LongAdder factoryCalls = new LongAdder();
+   private final LongAdder[] factoryLatency = newAdders(LATENCY_BOUNDS.length + 1);
+
+   private static LongAdder[] newAdders(int length)
+   {
+      LongAdder[] result = new LongAdder[length];
+      for (int i = 0; i < length; i++)
+         result[i] = new LongAdder();
+
+      return result;
+   }
+
+   /**
+    * Record a service lookup
+    * @param clazz The class name or null
+    * @param scanned The number of scanned candidates
+    * @param returned The number of returned services
+    * @param filtered True if the candidates were matched against a filter
+    */
+   public void lookup(String clazz, int scanned, int returned, boolean filtered)
+   {
+      if (ENABLED == false)
+         return;
+
+      lookupCount.increment();
+      getLookupCounter(clazz != null ? clazz : ANY_CLASS).increment();
+      candidatesScanned.add(scanned);
+      candidatesReturned.add(returned);
+      if (filtered)
+         filterEvaluations.add(scanned);
+   }
+
+   private LongAdder getLookupCounter(String clazz)
+   {
+      LongAdder counter = lookupsPerClass.get(clazz);
+      if (counter == null)
+      {
+         // Do not let arbitrary class names grow the map without bounds
+         if (lookupsPerClass.size() >= MAX_CLASSES)
+            clazz = OTHER_CLASSES;
+
+         counter = new LongAdder();
+         LongAdder existing = lookupsPerClass.putIfAbsent(clazz, counter);
+         if (existing != null)
+            counter = existing;
+      }
+      return counter;
+   }
+
+   /**
+    * Record a FindHook invocation
+    * @param nanos The duration of the invocation
+    */
+   public void findHook(long nanos)
+   {
+      if (ENABLED == false)
+         return;
+
+      findHookInvocations.increment();
+      findHookTime.add(nanos);
+   }
+
+   /**
+    * Record an EventHook invocation
+    * @param nanos The duration of the invocation
+    */
+   public void eventHook(long nanos)
+   {
+      if (ENABLED == false)
+         return;
+
+      eventHookInvocations.increment();
+      eventHookTime.add(nanos);
+   }
+
+   /**
+    * Record a fired service event
+    * @param candidates The number of service listeners that were examined for the event
+    */
+   public void serviceEvent(int candidates)
+   {
+      if (ENABLED == false)
+         return;
+
+      serviceEvents.increment();
+      listenerCandidates.add(candidates);
+   }
+
+   /**
+    * Record a ServiceFactory.getService call
+    * @param nanos The duration of the call
+    */
+   public void factoryCall(long nanos)
+   {
+      if (ENABLED == false)
+         return;
+
+      factoryCalls.increment();
+      int bucket = 0;
+      while (bucket < LATENCY_BOUNDS.length && nanos >= LATENCY_BOUNDS[bucket])
+         bucket++;
+
+      factoryLatency[bucket].increment();
+   }
+
+   @Override
+   public boolean isEnabled()
+   {
+      return ENABLED;
+   }
+
+   @Override
+   public long getLookupCount()
+   {
+      return lookupCount.sum();
+   }
+
+   @Override
+   public Map<String, Long> getLookupsPerClass()
+   {
+      Map<String, Long> result = new HashMap<String, Long>();
+      for (Map.Entry<String, LongAdder> entry : lookupsPerClass.entrySet())
+         result.put(entry.getKey(), entry.getValue().sum());
+
+      return result;
+   }
+
+   @Override
+   public long getCandidatesScanned()
+   {
+      return candidatesScanned.sum();
+   }
+
+   @Override
+   public long getCandidatesReturned()
+   {
+      return candidatesReturned.sum();
+   }
+
+   @Override
+   public long getFilterEvaluations()
+   {
+      return filterEvaluations.sum();
+   }
+
+   @Override
+   public long getFindHookInvocations()
+   {
+      return findHookInvocations.sum();
+   }
+
+   @Override
+   public long getFindHookTime()
+   {
+      return findHookTime.sum();
+   }
+
+   @Override
+   public long getEventHookInvocations()
+   {
+      return eventHookInvocations.sum();
+   }
+
+   @Override
+   public long getEventHookTime()
+   {
+      return eventHookTime.sum();
+   }
+
+   @Override
+   public long getServiceEvents()
+   {
+      return serviceEvents.sum();
+   }
+
+   @Override
+   public long getListenerCandidates()
+   {
+      return listenerCandidates.sum();
+   }
+
+   @Override
+   public long getFactoryCalls()
+   {
+      return factoryCalls.sum();
+   }
+
+   @Override
+   public long[] getFactoryLatencyHistogram()
+   {
+      long[] result = new long[factoryLatency.length];
+      for (int i = 0; i < result.length; i++)
+         result[i] = factoryLatency[i].sum();
+
+      return result;
+   }
+
+   @Override
+   public ServiceMetricsSnapshot getSnapshot()
+   {
+      return new ServiceMetricsSnapshot(getLookupCount(), getLookupsPerClass(), getCandidatesScanned(), getCandidatesReturned(), getFilterEvaluations(),
+            getFindHookInvocations(), getFindHookTime(), getEventHookInvocations(), getEventHookTime(), getServiceEvents(), getListenerCandidates(), getFactoryCalls(), getFactoryLatencyHistogram());
+   }
+
+   @Override
+   public void reset()
+   {
+      lookupCount.reset();
+      lookupsPerClass.clear();
+      candidatesScanned.reset();
+      candidatesReturned.reset();
+      filterEvaluations.reset();
+      findHookInvocations.reset();
+      findHookTime.reset();
+      eventHookInvocations.reset();
+      eventHookTime.reset();
+      serviceEvents.reset();
+      listenerCandidates.reset();
+      factoryCalls.reset();
+      for (LongAdder counter : factoryLatency)
+         counter.reset();
+   }
+}
@@ -0,0 +1,272 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.container.util;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+import org.osgi.framework.Constants;
+
+/**
+ * The immutable properties of a service.
+ *
+ * The keys are case insensitive. They are stored as sorted, interned lower case keys in a flat array,
+ * next to the keys in their original case and the values. Keys are found by binary search, which 
+ * compares the interned keys of a {@link CompiledFilter} by identity first. Other keys are searched 
+ * for a second time in lower case, if they are not found as they are.
+ *
+ * Since the properties cannot be modified, they are handed to filters and events as they are.
+ *
+ * @since 18-Oct-2026
+ */
+@SuppressWarnings("rawtypes")
+public final class ServiceProperties extends Dictionary implements CompiledFilter.PropertyLookup
+{
+   // The sorted interned lower case keys
+   private final String[] keys;
+   // The keys in their original case, in the order of the lower case keys
+   private final String[] originalKeys;
+   private final Object[] values;
+
+   /**
+    * Create the properties of a service. 
+    * The given service id and object classes replace any such keys in the given properties.
+    * 
+    * @param properties The properties or null
+    * @throws IllegalArgumentException If the properties contain the same key in different case
+    */
+   public ServiceProperties(Dictionary properties, Long serviceId, String[] objectClass)
+   {
+      if (serviceId == null)
+         throw new IllegalArgumentException("Null serviceId");
+      if (objectClass == null)
+         throw new IllegalArgumentException("Null objectClass");
+
+      int size = 2 + (properties != null ? properties.size() : 0);
+      Entry[] entries = new Entry[size];
+      int count = 0;
+      entries[count++] = new Entry(Constants.SERVICE_ID, serviceId);
+      entries[count++] = new Entry(Constants.OBJECTCLASS, objectClass);
+      if (properties != null)
+      {
+         Enumeration<?> en = properties.keys();
+         while (en.hasMoreElements())
+         {
+            Object key = en.nextElement();
+            if (key instanceof String == false)
+               throw new IllegalArgumentException("Invalid property key: " + key);
+
+            Entry entry = new Entry((String)key, properties.get(key));
+            if (entry.key.equals(entries[0].key) == false && entry.key.equals(entries[1].key) == false)
+               entries[count++] = entry;
+         }
+      }
+
+      Arrays.sort(entries, 0, count);
+      keys = new String[count];
+      originalKeys = new String[count];
+      values = new Object[count];
+      for (int i = 0; i < count; i++)
+      {
+         if (i > 0 && entries[i].key.equals(keys[i - 1]))
+            throw new IllegalArgumentException("Duplicate property key: " + entries[i].originalKey);
+
+         keys[i] = entries[i].key;
+         originalKeys[i] = entries[i].originalKey;
+         values[i] = entries[i].value;
+      }
+   }
+
+   @Override
+   public Object get(Object key)
+   {
+      if (key instanceof String == false)
+         return null;
+
+      return getProperty((String)key);
+   }
+
+   /**
+    * Get a property value, the key is case insensitive
+    */
+   public Object getProperty(String key)
+   {
+      if (key == null)
+         return null;
+
+      int index = indexOf(key);
+      return index >= 0 ? values[index] : null;
+   }
+
+   private int indexOf(String key)
+   {
+      // The keys of a compiled filter are interned lower case keys, they are found with the first search
+      int index = binarySearch(key);
+      if (index < 0)
+      {
+         String lowerKey = key.toLowerCase(Locale.ENGLISH);
+         if (lowerKey.equals(key) == false)
+            index = binarySearch(lowerKey);
+      }
+      return index;
+   }
+
+   // A binary search of the sorted keys, which compares the strings only if they are not identical
+   private int binarySearch(String key)
+   {
+      int low = 0;
+      int high = keys.length - 1;
+      while (low <= high)
+      {
+         int mid = (low + high) >>> 1;
+         String aux = keys[mid];
+         if (aux == key)
+            return mid;
+
+         int cmp = aux.compareTo(key);
+         if (cmp < 0)
+            low = mid + 1;
+         else if (cmp > 0)
+            high = mid - 1;
+         else
+            return mid;
+      }
+      return -1;
+   }
+
+   /**
+    * Get the keys in their original case
+    */
+   public String[] getKeys()
+   {
+      return originalKeys.clone();
+   }
+
+   @Override
+   public int size()
+   {
+      return keys.length;
+   }
+
+   @Override
+   public boolean isEmpty()
+   {
+      return keys.length == 0;
+   }
+
+   @Override
+   public Enumeration keys()
+   {
+      return new ArrayEnumeration(originalKeys);
+   }
+
+   @Override
+   public Enumeration elements()
+   {
+      return new ArrayEnumeration(values);
+   }
+
+   @Override
+   public Object put(Object key, Object value)
+   {
+      throw new UnsupportedOperationException("Service properties cannot be modified");
+   }
+
+   @Override
+   public Object remove(Object key)
+   {
+      throw new UnsupportedOperationException("Service properties cannot be modified");
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuilder builder = new StringBuilder("{");
+      for (int i = 0; i < keys.length; i++)
+      {
+         if (i > 0)
+            builder.append(", ");
+
+         Object value = values[i];
+         if (value != null && value.getClass().isArray())
+         {
+            Object[] items = new Object[Array.getLength(value)];
+            for (int j = 0; j < items.length; j++)
+               items[j] = Array.get(value, j);
+
+            value = Arrays.asList(items);
+         }
+         builder.append(originalKeys[i]).append("=").append(value);
+      }
+      return builder.append("}").toString();
+   }
+
+   private static final class Entry implements Comparable<Entry>
+   {
+      final String key;
+      final String originalKey;
+      final Object value;
+
+      Entry(String originalKey, Object value)
+      {
+         this.key = originalKey.toLowerCase(Locale.ENGLISH).intern();
+         this.originalKey = originalKey;
+         this.value = value;
+      }
+
+      @Override
+      public int compareTo(Entry other)
+      {
+         return key.compareTo(other.key);
+      }
+   }
+
+   private static final class ArrayEnumeration implements Enumeration<Object>
+   {
+      private final Object[] items;
+      private int index;
+
+      ArrayEnumeration(Object[] items)
+      {
+         this.items = items;
+      }
+
+      @Override
+      public boolean hasMoreElements()
+      {
+         return index < items.length;
+      }
+
+      @Override
+      public Object nextElement()
+      {
+         if (index >= items.length)
+            throw new NoSuchElementException();
+
+         return items[index++];
+      }
+   }
+}
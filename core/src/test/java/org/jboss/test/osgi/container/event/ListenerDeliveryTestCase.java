@@ -0,0 +1,295 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.osgi.container.plugin.internal.ListenerDeliveryExecutor;
+import org.jboss.osgi.container.plugin.internal.ListenerDeliveryExecutor.OverflowPolicy;
+import org.junit.Test;
+
+/**
+ * Test the bounded asynchronous event delivery and its overflow policies.
+ *
+ * @since 18-Oct-2026
+ */
+public class ListenerDeliveryTestCase
+{
+   @Test
+   public void testListenerOrder() throws Exception
+   {
+      ListenerDeliveryExecutor executor = new ListenerDeliveryExecutor(Executors.newFixedThreadPool(4), 100, OverflowPolicy.BLOCK);
+      List<Listener> received = new ArrayList<Listener>();
+      for (int i = 0; i < 8; i++)
+         received.add(new Listener());
+
+      int events = 1000;
+      for (int i = 0; i < events; i++)
+      {
+         for (Listener listener : received)
+            executor.deliver(listener, new Record(listener, i, null));
+      }
+
+      awaitDelivered(executor, events * received.size());
+      for (Listener listener : received)
+      {
+         assertEquals(events, listener.values.size());
+         for (int i = 0; i < events; i++)
+            assertEquals(Integer.valueOf(i), listener.values.get(i));
+      }
+      executor.shutdown();
+   }
+
+   @Test
+   public void testBlockPolicy() throws Exception
+   {
+      CountDownLatch release = new CountDownLatch(1);
+      final ListenerDeliveryExecutor executor = new ListenerDeliveryExecutor(Executors.newSingleThreadExecutor(), 2, OverflowPolicy.BLOCK);
+      final Listener listener = fillQueue(executor, release);
+
+      Thread firing = new Thread()
+      {
+         public void run()
+         {
+            executor.deliver(listener, new Record(listener, 3, null));
+         }
+      };
+      firing.start();
+      firing.join(200);
+      assertTrue("Firing thread blocked", firing.isAlive());
+      assertEquals(2, executor.getPendingCount());
+
+      release.countDown();
+      firing.join(5000);
+      assertFalse("Firing thread continued", firing.isAlive());
+      awaitDelivered(executor, 4);
+      assertEquals(list(0, 1, 2, 3), listener.values);
+      assertEquals(0, executor.getDroppedCount());
+      executor.shutdown();
+   }
+
+   @Test
+   public void testDropPolicy() throws Exception
+   {
+      CountDownLatch release = new CountDownLatch(1);
+      ListenerDeliveryExecutor executor = new ListenerDeliveryExecutor(Executors.newSingleThreadExecutor(), 2, OverflowPolicy.DROP);
+      Listener listener = fillQueue(executor, release);
+
+      executor.deliver(listener, new Record(listener, 3, null));
+      assertEquals(1, executor.getDroppedCount());
+      assertEquals(2, executor.getPendingCount());
+
+      release.countDown();
+      awaitDelivered(executor, 3);
+      assertEquals(list(0, 1, 2), listener.values);
+      executor.shutdown();
+   }
+
+   @Test
+   public void testCallerRunsPolicy() throws Exception
+   {
+      CountDownLatch release = new CountDownLatch(1);
+      final ListenerDeliveryExecutor executor = new ListenerDeliveryExecutor(Executors.newSingleThreadExecutor(), 2, OverflowPolicy.CALLER_RUNS);
+      final Listener listener = fillQueue(executor, release);
+
+      // A listener without pending events receives the event on the firing thread
+      Listener other = new Listener();
+      final List<Thread> threads = new ArrayList<Thread>();
+      executor.deliver(other, new Record(other, 0, null)
+      {
+         public void run()
+         {
+            super.run();
+            threads.add(Thread.currentThread());
+         }
+      });
+      assertEquals(list(0), other.values);
+      assertEquals(Thread.currentThread(), threads.get(0));
+
+      // A listener with pending events receives the event after them, the firing thread waits for space
+      Thread firing = new Thread()
+      {
+         public void run()
+         {
+            executor.deliver(listener, new Record(listener, 3, null));
+         }
+      };
+      firing.start();
+      firing.join(200);
+      assertTrue("Firing thread blocked", firing.isAlive());
+      assertEquals(2, executor.getPendingCount());
+      assertEquals(list(), listener.values);
+
+      release.countDown();
+      firing.join(5000);
+      assertFalse("Firing thread continued", firing.isAlive());
+      awaitDelivered(executor, 5);
+      assertEquals(list(0, 1, 2, 3), listener.values);
+      assertEquals(0, executor.getDroppedCount());
+      executor.shutdown();
+   }
+
+   @Test
+   public void testCallerRunsQueueDepth() throws Exception
+   {
+      final int queueDepth = 4;
+      final ListenerDeliveryExecutor executor = new ListenerDeliveryExecutor(Executors.newFixedThreadPool(2), queueDepth, OverflowPolicy.CALLER_RUNS);
+      final Listener listener = new Listener();
+      final AtomicInteger maxPending = new AtomicInteger();
+
+      // Several threads fire at a slow listener, the pending events never exceed the queue depth
+      final int events = 50;
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < 4; t++)
+      {
+         Thread firing = new Thread()
+         {
+            public void run()
+            {
+               for (int i = 0; i < events; i++)
+               {
+                  executor.deliver(listener, new Record(listener, i, null)
+                  {
+                     public void run()
+                     {
+                        int pending = executor.getPendingCount();
+                        int max = maxPending.get();
+                        while (pending > max && maxPending.compareAndSet(max, pending) == false)
+                           max = maxPending.get();
+
+                        pause(1);
+                        super.run();
+                     }
+                  });
+               }
+            }
+         };
+         threads.add(firing);
+         firing.start();
+      }
+      for (Thread firing : threads)
+         firing.join(10000);
+
+      awaitDelivered(executor, events * threads.size());
+      assertTrue("Pending events " + maxPending.get() + " within " + queueDepth, maxPending.get() <= queueDepth);
+      assertEquals(events * threads.size(), listener.values.size());
+      assertEquals(0, executor.getDroppedCount());
+      executor.shutdown();
+   }
+
+   /**
+    * Deliver three events to a new listener. The worker blocks in the first delivery until the latch
+    * is released, the other two fill the queue.
+    */
+   private Listener fillQueue(ListenerDeliveryExecutor executor, CountDownLatch release) throws Exception
+   {
+      Listener listener = new Listener();
+      CountDownLatch started = new CountDownLatch(1);
+      executor.deliver(listener, new Record(listener, 0, release, started));
+      assertTrue("First delivery started", started.await(5, TimeUnit.SECONDS));
+      executor.deliver(listener, new Record(listener, 1, null));
+      executor.deliver(listener, new Record(listener, 2, null));
+      return listener;
+   }
+
+   private void awaitDelivered(ListenerDeliveryExecutor executor, long count) throws InterruptedException
+   {
+      long timeout = System.currentTimeMillis() + 10000;
+      while (executor.getDeliveredCount() < count && System.currentTimeMillis() < timeout)
+         Thread.sleep(10);
+
+      assertEquals(count, executor.getDeliveredCount());
+   }
+
+   private static void pause(long millis)
+   {
+      try
+      {
+         Thread.sleep(millis);
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private List<Integer> list(Integer... values)
+   {
+      List<Integer> result = new ArrayList<Integer>();
+      Collections.addAll(result, values);
+      return result;
+   }
+
+   // A listener has identity equality, like the registered listeners do
+   static class Listener
+   {
+      final List<Integer> values = Collections.synchronizedList(new ArrayList<Integer>());
+   }
+
+   static class Record implements Runnable
+   {
+      private final Listener listener;
+      private final int value;
+      private final CountDownLatch release;
+      private final CountDownLatch started;
+
+      Record(Listener listener, int value, CountDownLatch release)
+      {
+         this(listener, value, release, null);
+      }
+
+      Record(Listener listener, int value, CountDownLatch release, CountDownLatch started)
+      {
+         this.listener = listener;
+         this.value = value;
+         this.release = release;
+         this.started = started;
+      }
+
+      public void run()
+      {
+         if (started != null)
+            started.countDown();
+
+         try
+         {
+            if (release != null)
+               release.await();
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt();
+         }
+         listener.values.add(value);
+      }
+   }
+}
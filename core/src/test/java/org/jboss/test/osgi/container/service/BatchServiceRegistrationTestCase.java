@@ -0,0 +1,174 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.msc.service.BatchBuilder;
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceContainer;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.osgi.container.bundle.AbstractBundle;
+import org.jboss.osgi.container.plugin.ServiceManagerPlugin;
+import org.jboss.osgi.container.spi.BatchServiceRegistry;
+import org.jboss.osgi.container.spi.ServiceDescriptor;
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Register a number of services in a single batch.
+ *
+ * @since 18-Oct-2026
+ */
+public class BatchServiceRegistrationTestCase extends OSGiFrameworkTest
+{
+   static final String FILTER = "(objectClass=" + Runnable.class.getName() + ")";
+
+   @Test
+   public void testRegisterServices() throws Exception
+   {
+      BundleContext context = getFramework().getBundleContext();
+      List<ServiceDescriptor> descriptors = new ArrayList<ServiceDescriptor>();
+      for (int i = 0; i < 3; i++)
+         descriptors.add(new ServiceDescriptor(Runnable.class.getName(), new Task(), null));
+
+      EventRecorder recorder = new EventRecorder();
+      context.addServiceListener(recorder, FILTER);
+      List<ServiceRegistration> registrations = registerServices(context, descriptors);
+      try
+      {
+         assertEquals(3, registrations.size());
+         for (int i = 0; i < 3; i++)
+         {
+            ServiceReference sref = registrations.get(i).getReference();
+            assertEquals(descriptors.get(i).getService(), context.getService(sref));
+            context.ungetService(sref);
+            assertEquals(sref, recorder.events.get(i).getServiceReference());
+            assertEquals(ServiceEvent.REGISTERED, recorder.events.get(i).getType());
+         }
+      }
+      finally
+      {
+         context.removeServiceListener(recorder);
+         for (ServiceRegistration sreg : registrations)
+            sreg.unregister();
+      }
+   }
+
+   @Test
+   public void testRegisterServicesFailure() throws Exception
+   {
+      BundleContext context = getFramework().getBundleContext();
+      Bundle systemBundle = context.getBundle();
+      ServiceManagerPlugin serviceManager = AbstractBundle.assertBundleState(systemBundle).getBundleManager().getPlugin(ServiceManagerPlugin.class);
+
+      // Occupy the name of the second service in the batch
+      long serviceId = serviceManager.getNextServiceId() + 2;
+      ServiceName serviceName = ServiceName.of("jbosgi", systemBundle.getSymbolicName(), "Runnable", new Long(serviceId).toString());
+      ServiceContainer serviceContainer = serviceManager.getServiceContainer();
+      BatchBuilder batchBuilder = serviceContainer.batchBuilder();
+      batchBuilder.addService(serviceName, Service.NULL);
+      batchBuilder.install();
+
+      List<ServiceDescriptor> descriptors = new ArrayList<ServiceDescriptor>();
+      descriptors.add(new ServiceDescriptor(Runnable.class.getName(), new Task(), null));
+      descriptors.add(new ServiceDescriptor(Runnable.class.getName(), new Task(), null));
+
+      EventRecorder recorder = new EventRecorder();
+      context.addServiceListener(recorder, FILTER);
+      try
+      {
+         registerServices(context, descriptors);
+         fail("IllegalStateException expected");
+      }
+      catch (IllegalStateException ex)
+      {
+         // expected
+      }
+      finally
+      {
+         context.removeServiceListener(recorder);
+         ServiceController<?> controller = serviceContainer.getService(serviceName);
+         controller.setMode(Mode.REMOVE);
+      }
+
+      // None of the services is registered
+      assertEquals(Collections.emptyList(), recorder.events);
+      ServiceReference[] srefs = context.getServiceReferences(Runnable.class.getName(), null);
+      if (srefs != null)
+      {
+         for (ServiceReference sref : srefs)
+         {
+            Object service = context.getService(sref);
+            context.ungetService(sref);
+            if (service == descriptors.get(0).getService() || service == descriptors.get(1).getService())
+               fail("Unexpected service: " + sref);
+         }
+      }
+   }
+
+   private List<ServiceRegistration> registerServices(BundleContext context, List<ServiceDescriptor> descriptors)
+   {
+      ServiceReference sref = context.getServiceReference(BatchServiceRegistry.class.getName());
+      assertNotNull("BatchServiceRegistry not null", sref);
+      BatchServiceRegistry registry = (BatchServiceRegistry)context.getService(sref);
+      try
+      {
+         return registry.registerServices(context, descriptors);
+      }
+      finally
+      {
+         context.ungetService(sref);
+      }
+   }
+
+   static class EventRecorder implements ServiceListener
+   {
+      final List<ServiceEvent> events = Collections.synchronizedList(new ArrayList<ServiceEvent>());
+
+      public void serviceChanged(ServiceEvent event)
+      {
+         events.add(event);
+      }
+   }
+
+   static class Task implements Runnable
+   {
+      public void run()
+      {
+      }
+   }
+}
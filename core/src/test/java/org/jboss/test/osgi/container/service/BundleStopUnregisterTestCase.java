@@ -0,0 +1,148 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * The services of a stopping bundle are unregistered in registration order.
+ *
+ * @since 18-Oct-2026
+ */
+public class BundleStopUnregisterTestCase extends OSGiFrameworkTest
+{
+   static final int SERVICE_COUNT = 300;
+
+   @Test
+   public void testUnregisterOnStop() throws Exception
+   {
+      final BundleContext context = getFramework().getBundleContext();
+      Bundle bundle = installBundle(createTestBundle("stop-unregister"));
+      try
+      {
+         bundle.start();
+         BundleContext bundleContext = bundle.getBundleContext();
+         for (int i = 0; i < SERVICE_COUNT; i++)
+         {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put("index", i);
+            bundleContext.registerService(Runnable.class.getName(), new Task(), props);
+         }
+         assertEquals(SERVICE_COUNT, bundle.getRegisteredServices().length);
+
+         final List<Integer> unregistered = new ArrayList<Integer>();
+         final List<Integer> remaining = new ArrayList<Integer>();
+         ServiceListener listener = new ServiceListener()
+         {
+            public void serviceChanged(ServiceEvent event)
+            {
+               if (event.getType() == ServiceEvent.UNREGISTERING)
+               {
+                  unregistered.add((Integer)event.getServiceReference().getProperty("index"));
+
+                  // The services that were unregistered before are gone from the registry
+                  ServiceReference[] srefs = getServiceReferences(context);
+                  remaining.add(srefs != null ? srefs.length : 0);
+               }
+            }
+         };
+         context.addServiceListener(listener, "(objectClass=" + Runnable.class.getName() + ")");
+         try
+         {
+            bundle.stop();
+         }
+         finally
+         {
+            context.removeServiceListener(listener);
+         }
+
+         assertEquals(SERVICE_COUNT, unregistered.size());
+         for (int i = 0; i < SERVICE_COUNT; i++)
+         {
+            assertEquals(Integer.valueOf(i), unregistered.get(i));
+            assertEquals(Integer.valueOf(SERVICE_COUNT - i), remaining.get(i));
+         }
+         assertNull(bundle.getRegisteredServices());
+         assertNull(getServiceReferences(context));
+      }
+      finally
+      {
+         bundle.uninstall();
+      }
+   }
+
+   private static ServiceReference[] getServiceReferences(BundleContext context)
+   {
+      try
+      {
+         return context.getServiceReferences(Runnable.class.getName(), null);
+      }
+      catch (Exception ex)
+      {
+         throw new IllegalStateException(ex);
+      }
+   }
+
+   private JavaArchive createTestBundle(String name)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+      archive.setManifest(new Asset()
+      {
+         @Override
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addBundleManifestVersion(2);
+            builder.addImportPackages("org.osgi.framework");
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+
+   static class Task implements Runnable
+   {
+      public void run()
+      {
+         // do nothing
+      }
+   }
+}
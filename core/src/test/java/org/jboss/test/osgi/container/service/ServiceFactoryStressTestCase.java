@@ -0,0 +1,148 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Concurrent access to the values of a {@link ServiceFactory}.
+ *
+ * @since 18-Oct-2026
+ */
+public class ServiceFactoryStressTestCase extends OSGiFrameworkTest
+{
+   static final int THREAD_COUNT = 64;
+   static final int ITERATIONS = 100;
+
+   @Test
+   public void testConcurrentGetService() throws Exception
+   {
+      final BundleContext context = getFramework().getBundleContext();
+      CountingServiceFactory factory = new CountingServiceFactory();
+      ServiceRegistration sreg = context.registerService(Runnable.class.getName(), factory, null);
+      try
+      {
+         final ServiceReference sref = sreg.getReference();
+         final CountDownLatch startSignal = new CountDownLatch(1);
+
+         ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+         try
+         {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < THREAD_COUNT; i++)
+            {
+               futures.add(executor.submit(new Callable<Object>()
+               {
+                  public Object call() throws Exception
+                  {
+                     startSignal.await();
+                     Object value = null;
+                     for (int j = 0; j < ITERATIONS; j++)
+                     {
+                        value = context.getService(sref);
+                        assertNotNull("Service not null", value);
+                     }
+                     return value;
+                  }
+               }));
+            }
+            startSignal.countDown();
+
+            // Every thread gets the same value and the factory is called once
+            Object value = futures.get(0).get(30, TimeUnit.SECONDS);
+            for (Future<Object> future : futures)
+               assertSame(value, future.get(30, TimeUnit.SECONDS));
+
+            assertEquals(1, factory.getCount.get());
+            assertEquals(0, factory.ungetCount.get());
+         }
+         finally
+         {
+            executor.shutdown();
+         }
+
+         // The factory value is released with the last unget
+         for (int i = 1; i < THREAD_COUNT * ITERATIONS; i++)
+            assertTrue("Service in use", context.ungetService(sref));
+
+         assertEquals(0, factory.ungetCount.get());
+         assertTrue("Service in use", context.ungetService(sref));
+         assertEquals(1, factory.ungetCount.get());
+         assertNull("Not using bundles", sref.getUsingBundles());
+
+         // The factory is called again for the next get
+         assertNotNull("Service not null", context.getService(sref));
+         assertEquals(2, factory.getCount.get());
+         context.ungetService(sref);
+         assertEquals(2, factory.ungetCount.get());
+      }
+      finally
+      {
+         sreg.unregister();
+      }
+   }
+
+   static class CountingServiceFactory implements ServiceFactory
+   {
+      final AtomicInteger getCount = new AtomicInteger();
+      final AtomicInteger ungetCount = new AtomicInteger();
+
+      public Object getService(Bundle bundle, ServiceRegistration registration)
+      {
+         getCount.incrementAndGet();
+         return new Runnable()
+         {
+            public void run()
+            {
+               // do nothing
+            }
+         };
+      }
+
+      public void ungetService(Bundle bundle, ServiceRegistration registration, Object service)
+      {
+         ungetCount.incrementAndGet();
+      }
+   }
+}
@@ -0,0 +1,126 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Vector;
+
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Lookups that use the service.pid property index find the same services as the standard filter.
+ *
+ * @since 18-Oct-2026
+ */
+public class ServicePropertyIndexTestCase extends OSGiFrameworkTest
+{
+   static final String[] FILTERS = new String[] { 
+      "(service.pid=a)", "(SERVICE.PID=b)", "(service.pid=c)", "(service.pid=7)", "(service.pid=missing)",
+      "(|(service.pid=a)(service.pid=b))", "(&(service.pid=a)(rank=high))", "(&(objectClass=java.lang.Runnable)(service.pid=b))",
+      "(|(service.pid=a)(name=other))", "(service.pid=a*)", "(service.pid=*)", "(!(service.pid=a))" };
+
+   @Test
+   public void testPropertyIndexLookups() throws Exception
+   {
+      BundleContext context = getFramework().getBundleContext();
+      List<ServiceRegistration> registrations = new ArrayList<ServiceRegistration>();
+      try
+      {
+         registrations.add(register(context, Runnable.class, "a", "high"));
+         registrations.add(register(context, Runnable.class, "a", "low"));
+         registrations.add(register(context, Comparable.class, "b", null));
+         registrations.add(register(context, Runnable.class, new String[] { "b", "c" }, null));
+         registrations.add(register(context, Runnable.class, new Vector<String>(Arrays.asList("a", "c")), null));
+         registrations.add(register(context, Comparable.class, Integer.valueOf(7), null));
+         registrations.add(register(context, Runnable.class, null, "other"));
+
+         for (String filterStr : FILTERS)
+         {
+            assertLookup(context, null, filterStr);
+            assertLookup(context, Runnable.class.getName(), filterStr);
+         }
+
+         // Modified properties move the service to its new pid
+         Hashtable<String, Object> props = new Hashtable<String, Object>();
+         props.put(Constants.SERVICE_PID, "c");
+         registrations.get(0).setProperties(props);
+         for (String filterStr : FILTERS)
+            assertLookup(context, null, filterStr);
+      }
+      finally
+      {
+         for (ServiceRegistration sreg : registrations)
+            sreg.unregister();
+      }
+   }
+
+   private void assertLookup(BundleContext context, String clazz, String filterStr) throws Exception
+   {
+      Filter filter = FrameworkUtil.createFilter(filterStr);
+      List<ServiceReference> expected = new ArrayList<ServiceReference>();
+      ServiceReference[] all = context.getServiceReferences(clazz, null);
+      for (ServiceReference sref : (all != null ? all : new ServiceReference[0]))
+      {
+         if (filter.match(sref))
+            expected.add(sref);
+      }
+
+      ServiceReference[] srefs = context.getServiceReferences(clazz, filterStr);
+      List<ServiceReference> actual = (srefs != null ? Arrays.asList(srefs) : new ArrayList<ServiceReference>());
+      assertEquals(clazz + " " + filterStr, expected, actual);
+   }
+
+   private ServiceRegistration register(BundleContext context, Class<?> clazz, Object pid, String name)
+   {
+      Hashtable<String, Object> props = new Hashtable<String, Object>();
+      if (pid != null)
+         props.put(Constants.SERVICE_PID, pid);
+      if (name != null)
+         props.put("name", name);
+      if ("high".equals(name))
+         props.put(Constants.SERVICE_RANKING, Integer.valueOf(10));
+
+      props.put("rank", name != null ? name : "none");
+      Object service = (clazz == Runnable.class ? new Task() : "service");
+      return context.registerService(clazz.getName(), service, props);
+   }
+
+   static class Task implements Runnable
+   {
+      public void run()
+      {
+         // do nothing
+      }
+   }
+}
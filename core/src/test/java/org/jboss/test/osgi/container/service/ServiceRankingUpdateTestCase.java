@@ -0,0 +1,115 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * A service stays visible to concurrent lookups while its ranking is modified.
+ *
+ * @since 18-Oct-2026
+ */
+public class ServiceRankingUpdateTestCase extends OSGiFrameworkTest
+{
+   static final int UPDATE_COUNT = 2000;
+
+   @Test
+   public void testLookupDuringRankingUpdate() throws Exception
+   {
+      final BundleContext context = getFramework().getBundleContext();
+      Hashtable<String, Object> props = new Hashtable<String, Object>();
+      props.put("service.pid", "ranking-update");
+      ServiceRegistration other = context.registerService(Runnable.class.getName(), new Task(), null);
+      final ServiceRegistration sreg = context.registerService(Runnable.class.getName(), new Task(), props);
+      try
+      {
+         final AtomicBoolean done = new AtomicBoolean();
+         final AtomicReference<String> failure = new AtomicReference<String>();
+         Thread lookup = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  while (done.get() == false && failure.get() == null)
+                  {
+                     ServiceReference[] srefs = context.getServiceReferences(Runnable.class.getName(), null);
+                     if (srefs == null || srefs.length != 2)
+                        failure.set("Expected two services, but was: " + (srefs != null ? srefs.length : 0));
+
+                     srefs = context.getServiceReferences(null, "(service.pid=ranking-update)");
+                     if (srefs == null || srefs.length != 1)
+                        failure.set("Expected one pid service, but was: " + (srefs != null ? srefs.length : 0));
+                  }
+               }
+               catch (Exception ex)
+               {
+                  failure.set(ex.toString());
+               }
+            }
+         };
+         lookup.start();
+
+         for (int i = 0; i < UPDATE_COUNT; i++)
+         {
+            props.put(Constants.SERVICE_RANKING, Integer.valueOf(i % 2 == 0 ? 10 : -10));
+            sreg.setProperties(props);
+         }
+         done.set(true);
+         lookup.join();
+         assertNull(failure.get(), failure.get());
+
+         // The last update has ranking -10
+         ServiceReference sref = context.getServiceReference(Runnable.class.getName());
+         assertNotNull("ServiceReference not null", sref);
+         assertEquals(other.getReference(), sref);
+      }
+      finally
+      {
+         sreg.unregister();
+         other.unregister();
+      }
+      assertNull(context.getServiceReferences(null, "(service.pid=ranking-update)"));
+   }
+
+   static class Task implements Runnable
+   {
+      public void run()
+      {
+         // do nothing
+      }
+   }
+}
@@ -0,0 +1,102 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.InputStream;
+
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.container.simple.bundleA.SimpleService;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * A bundle registers a service of its own type again after it was refreshed.
+ *
+ * @since 18-Oct-2026
+ */
+public class ServiceRegistrationRefreshTestCase extends OSGiFrameworkTest
+{
+   @Test
+   public void testRegisterAfterRefresh() throws Exception
+   {
+      Bundle bundle = installBundle(createTestBundle("refresh-register"));
+      try
+      {
+         bundle.start();
+         Class<?> serviceClass = bundle.loadClass(SimpleService.class.getName());
+         ServiceRegistration sreg = registerService(bundle, serviceClass);
+         sreg.unregister();
+
+         // The refreshed bundle loads the service type through a new class loader
+         refreshPackages(new Bundle[] { bundle });
+         Class<?> refreshedClass = bundle.loadClass(SimpleService.class.getName());
+         assertNotSame(serviceClass, refreshedClass);
+
+         sreg = registerService(bundle, refreshedClass);
+         ServiceReference sref = sreg.getReference();
+         assertNotNull("ServiceReference not null", sref);
+         assertEquals(bundle, sref.getBundle());
+         sreg.unregister();
+      }
+      finally
+      {
+         bundle.uninstall();
+      }
+   }
+
+   private ServiceRegistration registerService(Bundle bundle, Class<?> serviceClass) throws Exception
+   {
+      BundleContext context = bundle.getBundleContext();
+      Object service = serviceClass.getConstructor(BundleContext.class).newInstance(context);
+      return context.registerService(SimpleService.class.getName(), service, null);
+   }
+
+   private JavaArchive createTestBundle(String name)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+      archive.addClasses(SimpleService.class);
+      archive.setManifest(new Asset()
+      {
+         @Override
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addBundleManifestVersion(2);
+            builder.addImportPackages("org.osgi.framework");
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+}
@@ -0,0 +1,183 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.container.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Vector;
+
+import org.jboss.osgi.container.util.CompiledFilter;
+import org.jboss.osgi.container.util.ServiceProperties;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+
+/**
+ * The compiled filter matches like the standard filter implementation.
+ *
+ * @since 18-Oct-2026
+ */
+public class CompiledFilterTestCase
+{
+   static final String[] FILTERS = new String[] { 
+      "(name=foo)", "(NAME=Foo)", "(name=fo*)", "(name=*oo)", "(name=f*o*o)", "(name=*o*)", "(name=\\*o*)", "(name=f\\(x\\))",
+      "(name~=FOO)", "(name~=f o o)", "(name~=bar)", "(name=*)", "(missing=*)", "(!(missing=*))",
+      "(count>=5)", "(count<=5)", "(count=5)", "(count>=10)", "(count<=-1)", "(count~=5)",
+      "(size>=5)", "(size<=5)", "(ratio>=1.5)", "(ratio<=1.5)", "(flag=true)", "(flag=TRUE)", "(char=c)",
+      "(version>=1.2)", "(version<=1.2)", "(version=1.2.0)",
+      "(tags=b)", "(tags=x*)", "(tags>=c)", "(tags<=a)", "(tags=*)",
+      "(numbers=2)", "(numbers>=3)", "(numbers<=0)", "(list=two)", "(list=t*)", "(list>=three)", "(ints=7)", "(ints<=6)",
+      "(&(name=foo)(count>=5))", "(|(name=bar)(count<=5))", "(!(name=foo))", "(&(name=f*)(!(tags=b)))",
+      "(|(objectClass=a.A)(&(objectClass=b.B)(name=foo)))" };
+
+   @Test
+   public void testMatchProperties() throws Exception
+   {
+      for (Dictionary<String, Object> props : getPropertySets())
+      {
+         ServiceProperties serviceProps = new ServiceProperties(props, 1L, new String[] { "b.B" });
+         Hashtable<String, Object> expectedProps = new Hashtable<String, Object>(toMap(serviceProps));
+         ServiceReference reference = new PropertiesReference(serviceProps);
+         for (String filterStr : FILTERS)
+         {
+            Filter expected = FrameworkUtil.createFilter(filterStr);
+            CompiledFilter compiled = CompiledFilter.compile(filterStr);
+            String message = filterStr + " " + serviceProps;
+            assertEquals(message, expected.match(expectedProps), compiled.match(serviceProps));
+            assertEquals(message, expected.match(expectedProps), compiled.match(expectedProps));
+            assertEquals(message, expected.match(reference), compiled.match(reference));
+         }
+      }
+   }
+
+   @Test
+   public void testRequiredValues() throws Exception
+   {
+      CompiledFilter filter = CompiledFilter.compile("(|(objectClass=a.A)(&(objectClass=b.B)(name=foo)))");
+      assertEquals(new HashSet<String>(Arrays.asList("a.A", "b.B")), filter.getRequiredValues("objectClass"));
+      assertNull(filter.getRequiredValues("name"));
+
+      filter = CompiledFilter.compile("(&(service.pid=x)(!(name=foo)))");
+      assertEquals(new HashSet<String>(Arrays.asList("x")), filter.getRequiredValues("SERVICE.PID"));
+      assertNull(filter.getRequiredValues("name"));
+
+      filter = CompiledFilter.compile("(service.pid=x*)");
+      assertNull(filter.getRequiredValues("service.pid"));
+   }
+
+   private static List<Dictionary<String, Object>> getPropertySets()
+   {
+      Hashtable<String, Object> first = new Hashtable<String, Object>();
+      first.put("Name", "foo");
+      first.put("count", Integer.valueOf(5));
+      first.put("size", Long.valueOf(7));
+      first.put("ratio", Double.valueOf(1.5));
+      first.put("flag", Boolean.TRUE);
+      first.put("char", Character.valueOf('c'));
+      first.put("version", new Version("1.2"));
+      first.put("tags", new String[] { "a", "b" });
+      first.put("numbers", new Integer[] { 1, 2, 3 });
+      first.put("ints", new int[] { 6, 7 });
+      Vector<Object> list = new Vector<Object>();
+      list.add("one");
+      list.add("two");
+      first.put("list", list);
+
+      Hashtable<String, Object> second = new Hashtable<String, Object>();
+      second.put("name", "F O O");
+      second.put("count", "10");
+      second.put("size", Short.valueOf((short)3));
+      second.put("ratio", Float.valueOf(2.5f));
+      second.put("flag", "false");
+      second.put("tags", new String[] { "x", "c" });
+      second.put("numbers", new Long[] { 0L });
+      second.put("list", new Vector<Object>(Arrays.asList("three", "four")));
+
+      Hashtable<String, Object> third = new Hashtable<String, Object>();
+      third.put("name", "*oo");
+      third.put("count", Integer.valueOf(-1));
+      third.put("tags", new String[0]);
+
+      Hashtable<String, Object> fourth = new Hashtable<String, Object>();
+      fourth.put("name", "f(x)");
+
+      return Arrays.<Dictionary<String, Object>> asList(first, second, third, fourth, new Hashtable<String, Object>());
+   }
+
+   private static Hashtable<String, Object> toMap(ServiceProperties props)
+   {
+      Hashtable<String, Object> result = new Hashtable<String, Object>();
+      for (String key : props.getKeys())
+         result.put(key, props.get(key));
+      return result;
+   }
+
+   // A reference to the given properties, only used for matching
+   static class PropertiesReference implements ServiceReference
+   {
+      private final ServiceProperties properties;
+
+      PropertiesReference(ServiceProperties properties)
+      {
+         this.properties = properties;
+      }
+
+      public Object getProperty(String key)
+      {
+         return properties.get(key);
+      }
+
+      public String[] getPropertyKeys()
+      {
+         return properties.getKeys();
+      }
+
+      public Bundle getBundle()
+      {
+         return null;
+      }
+
+      public Bundle[] getUsingBundles()
+      {
+         return null;
+      }
+
+      public boolean isAssignableTo(Bundle bundle, String className)
+      {
+         return true;
+      }
+
+      public int compareTo(Object reference)
+      {
+         return 0;
+      }
+   }
+}
@@ -23,11 +23,24 @@ package org.jboss.test.osgi.container.xservice;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
+import org.jboss.msc.service.BatchBuilder;
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceContainer;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.service.StopContext;
+import org.jboss.osgi.container.bundle.AbstractBundle;
+import org.jboss.osgi.container.plugin.ServiceManagerPlugin;
+import org.jboss.osgi.modules.ModuleContext;
 import org.jboss.osgi.testing.OSGiFrameworkTest;
 import org.jboss.osgi.testing.OSGiManifestBuilder;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
@@ -159,6 +172,54 @@ public class ModuleServiceTestCase extends OSGiFrameworkTest
       }
    }
    
+   @Test
+   public void testContainerService() throws Exception
+   {
+      // An xservice that is installed through the service container, outside of a module
+      BundleContext context = getFramework().getBundleContext();
+      ServiceManagerPlugin serviceManager = AbstractBundle.assertBundleState(context.getBundle()).getBundleManager().getPlugin(ServiceManagerPlugin.class);
+      ServiceContainer serviceContainer = serviceManager.getServiceContainer();
+      ServiceName serviceName = ServiceName.of(ModuleContext.XSERVICE_PREFIX, Runnable.class.getName());
+      final Runnable value = new Runnable()
+      {
+         public void run()
+         {
+         }
+      };
+      BatchBuilder batchBuilder = serviceContainer.batchBuilder();
+      batchBuilder.addService(serviceName, new Service<Runnable>()
+      {
+         public Runnable getValue()
+         {
+            return value;
+         }
+
+         public void start(StartContext context)
+         {
+         }
+
+         public void stop(StopContext context)
+         {
+         }
+      });
+      batchBuilder.install();
+
+      ServiceController<?> controller = serviceContainer.getService(serviceName);
+      for (int i = 0; i < 50 && controller.getState() != State.UP; i++)
+         Thread.sleep(100);
+      assertEquals(State.UP, controller.getState());
+
+      ServiceReference sref = context.getServiceReference(Runnable.class.getName());
+      assertNotNull("Service ref not null", sref);
+      assertEquals(value, context.getService(sref));
+      context.ungetService(sref);
+      
+      controller.setMode(Mode.REMOVE);
+      for (int i = 0; i < 50 && context.getServiceReference(Runnable.class.getName()) != null; i++)
+         Thread.sleep(100);
+      assertNull("Service ref null", context.getServiceReference(Runnable.class.getName()));
+   }
+
    private String invokeService(Object service, String exp) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException
    {
       Method method = service.getClass().getMethod("echo", new Class<?>[] { String.class });
@@ -0,0 +1,251 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.container.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jboss.osgi.container.bundle.AbstractBundle;
+import org.jboss.osgi.container.bundle.AbstractUserBundle;
+import org.jboss.osgi.container.launch.FrameworkFactoryImpl;
+import org.jboss.osgi.container.plugin.BundleStoragePlugin;
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.launch.Framework;
+import org.osgi.service.startlevel.StartLevel;
+
+/**
+ * Test the bundle cache across framework restarts
+ * 
+ * @since 18-Oct-2026
+ */
+public class BundleCacheTestCase extends OSGiFrameworkTest
+{
+   private static final String STORAGE_DIR = "./target/osgi-bundle-cache";
+
+   @BeforeClass
+   public static void beforeClass()
+   {
+      // prevent framework creation
+   }
+
+   @Test
+   public void testRestartFramework() throws Exception
+   {
+      Framework framework = newFramework(true);
+      framework.start();
+
+      BundleContext context = framework.getBundleContext();
+      Bundle bundle = context.installBundle("restart-location", toInputStream(getArchive("restart-bundle", "1.0.0")));
+      long bundleId = bundle.getBundleId();
+
+      StartLevel startLevel = getStartLevel(context);
+      startLevel.setBundleStartLevel(bundle, 2);
+      bundle.start();
+      assertTrue("persistently started", startLevel.isBundlePersistentlyStarted(bundle));
+
+      bundle.update(toInputStream(getArchive("restart-bundle", "1.1.0")));
+      assertEquals(2, AbstractUserBundle.assertBundleState(bundle).getCurrentRevision().getRevisionCount());
+
+      File cacheDir = getBundleCacheDir(framework);
+      stopFramework(framework);
+      assertTrue("snapshot exists", new File(cacheDir, "manifest.snapshot").exists());
+
+      framework = newFramework(false);
+      framework.start();
+
+      context = framework.getBundleContext();
+      bundle = context.getBundle(bundleId);
+      assertNotNull("Bundle restored", bundle);
+      assertEquals("restart-location", bundle.getLocation());
+      assertEquals("restart-bundle", bundle.getHeaders().get(Constants.BUNDLE_SYMBOLICNAME));
+      assertEquals("1.1.0", bundle.getHeaders().get(Constants.BUNDLE_VERSION));
+
+      startLevel = getStartLevel(context);
+      assertEquals(2, startLevel.getBundleStartLevel(bundle));
+      assertTrue("persistently started", startLevel.isBundlePersistentlyStarted(bundle));
+
+      // The revision counter continues where the previous framework stopped
+      bundle.update(toInputStream(getArchive("restart-bundle", "1.2.0")));
+      assertEquals(3, AbstractUserBundle.assertBundleState(bundle).getCurrentRevision().getRevisionCount());
+
+      Bundle other = context.installBundle("other-location", toInputStream(getArchive("other-bundle", "1.0.0")));
+      assertTrue("New bundle id " + other.getBundleId(), other.getBundleId() > bundleId);
+
+      stopFramework(framework);
+   }
+
+   @Test
+   public void testInvalidCacheEntry() throws Exception
+   {
+      Framework framework = newFramework(true);
+      framework.start();
+
+      BundleContext context = framework.getBundleContext();
+      Bundle bundleA = context.installBundle("location-a", toInputStream(getArchive("bundle-a", "1.0.0")));
+      Bundle bundleB = context.installBundle("location-b", toInputStream(getArchive("bundle-b", "1.0.0")));
+      long idA = bundleA.getBundleId();
+      long idB = bundleB.getBundleId();
+
+      File cacheDir = getBundleCacheDir(framework);
+      stopFramework(framework);
+
+      // Overwrite the entry of bundle-a with garbage
+      File entryFile = new File(cacheDir, "bundle-" + idA + ".properties");
+      assertTrue(entryFile + " exists", entryFile.exists());
+      FileOutputStream fos = new FileOutputStream(entryFile);
+      fos.write(new byte[] { 0x00, 0x7f, 0x3d, 0x0a, 0x01 });
+      fos.close();
+
+      framework = newFramework(false);
+      framework.start();
+
+      context = framework.getBundleContext();
+      assertNull("Bundle not restored", context.getBundle(idA));
+      Bundle bundle = context.getBundle(idB);
+      assertNotNull("Bundle restored", bundle);
+      assertEquals("location-b", bundle.getLocation());
+
+      stopFramework(framework);
+   }
+
+   @Test
+   public void testStaleManifestSnapshot() throws Exception
+   {
+      Framework framework = newFramework(true);
+      framework.start();
+
+      BundleContext context = framework.getBundleContext();
+      Bundle bundle = context.installBundle("stale-location", toInputStream(getArchive("stale-bundle", "1.0.0")));
+      long bundleId = bundle.getBundleId();
+
+      File cacheDir = getBundleCacheDir(framework);
+      stopFramework(framework);
+      assertTrue("snapshot exists", new File(cacheDir, "manifest.snapshot").exists());
+
+      // Replace the cached content, the snapshot no longer matches it
+      Properties entry = new Properties();
+      FileInputStream fis = new FileInputStream(new File(cacheDir, "bundle-" + bundleId + ".properties"));
+      entry.load(fis);
+      fis.close();
+      File contentFile = new File(cacheDir, entry.getProperty("content"));
+      long lastModified = contentFile.lastModified();
+      FileOutputStream fos = new FileOutputStream(contentFile);
+      VFSUtils.copyStream(toInputStream(getArchive("stale-bundle", "2.0.0")), fos);
+      fos.close();
+      contentFile.setLastModified(lastModified + 10000);
+
+      framework = newFramework(false);
+      framework.start();
+
+      // The headers are read from the content, not from the stale snapshot
+      context = framework.getBundleContext();
+      bundle = context.getBundle(bundleId);
+      assertNotNull("Bundle restored", bundle);
+      assertEquals("2.0.0", bundle.getHeaders().get(Constants.BUNDLE_VERSION));
+
+      stopFramework(framework);
+   }
+
+   @Test
+   public void testNoStorageArea() throws Exception
+   {
+      // Without a configured storage area the bundle cache is not used
+      Framework framework = new FrameworkFactoryImpl().newFramework(new HashMap<String, String>());
+      framework.start();
+
+      BundleContext context = framework.getBundleContext();
+      Bundle bundle = context.installBundle("no-storage-location", toInputStream(getArchive("no-storage-bundle", "1.0.0")));
+      File entryFile = new File(getBundleCacheDir(framework), "bundle-" + bundle.getBundleId() + ".properties");
+      assertFalse(entryFile + " not written", entryFile.exists());
+
+      stopFramework(framework);
+      assertFalse(entryFile + " not written", entryFile.exists());
+   }
+
+   private Framework newFramework(boolean clean)
+   {
+      Map<String, String> props = new HashMap<String, String>();
+      props.put(Constants.FRAMEWORK_STORAGE, STORAGE_DIR);
+      if (clean)
+         props.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+      return new FrameworkFactoryImpl().newFramework(props);
+   }
+
+   private void stopFramework(Framework framework) throws Exception
+   {
+      framework.stop();
+      framework.waitForStop(2000);
+      assertBundleState(Bundle.RESOLVED, framework.getState());
+   }
+
+   private StartLevel getStartLevel(BundleContext context)
+   {
+      ServiceReference sref = context.getServiceReference(StartLevel.class.getName());
+      return (StartLevel)context.getService(sref);
+   }
+
+   private File getBundleCacheDir(Framework framework)
+   {
+      AbstractBundle systemBundle = AbstractBundle.assertBundleState(framework);
+      BundleStoragePlugin plugin = systemBundle.getBundleManager().getPlugin(BundleStoragePlugin.class);
+      return plugin.getBundleCacheDir();
+   }
+
+   private JavaArchive getArchive(final String symbolicName, final String version)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, symbolicName);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(symbolicName);
+            builder.addBundleVersion(version);
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+}
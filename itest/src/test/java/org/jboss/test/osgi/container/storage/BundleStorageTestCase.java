@@ -28,6 +28,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
@@ -89,6 +91,37 @@ public class BundleStorageTestCase extends OSGiFrameworkTest
       assertFalse(file + " deleted", file.exists());
    }
 
+   @Test
+   public void testBundleStreamSharedContent() throws Exception
+   {
+      Bundle systemBundle = getSystemContext().getBundle();
+      BundleManager bundleManager = AbstractBundle.assertBundleState(systemBundle).getBundleManager();
+      BundleStoragePlugin plugin = bundleManager.getPlugin(BundleStoragePlugin.class);
+
+      File storageDir = plugin.getStorageDir(systemBundle);
+      File streamDir = new File (storageDir + File.separator + "bundle-streams");
+      File blobDir = new File (storageDir + File.separator + "bundle-blobs");
+
+      // The same content stored for two locations
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      VFSUtils.copyStream(toInputStream(getArchive()), baos);
+      byte[] content = baos.toByteArray();
+      File first = plugin.storeBundleStream("first-location", new ByteArrayInputStream(content), 0);
+      File second = plugin.storeBundleStream("second-location", new ByteArrayInputStream(content), 0);
+      assertFalse("distinct stream files", first.equals(second));
+      assertEquals("two stream files", 2, streamDir.list().length);
+      assertEquals("one blob", 1, blobDir.list().length);
+
+      plugin.deleteBundleStream(first);
+      assertFalse(first + " deleted", first.exists());
+      assertTrue(second + " exists", second.exists());
+      assertEquals("one blob", 1, blobDir.list().length);
+
+      plugin.deleteBundleStream(second);
+      assertEquals("stream files deleted", 0, streamDir.list().length);
+      assertEquals("blob deleted", 0, blobDir.list().length);
+   }
+
    @Test
    public void testBundleExternalFile() throws Exception
    {